@@ -0,0 +1,113 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.annotations.NavigationPoint;
+import nl.trifork.spring.navigation.stack.NavigationStackEnricher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the {@link NavigationHandlerInterceptor} per request, i.e. a {@code preHandle}, {@code
+ * postHandle} and {@code afterCompletion} cycle, on base pages, step pages and pages that are no navigation point.
+ * <p/>
+ * Base page requests alternate between two base pages and step page requests between two step pages, so that every
+ * request actually changes the navigation stack. Each benchmark runs on a plain mock session and on a session that
+ * serializes its attributes, like a replicated session does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NavigationHandlerInterceptorBenchmark {
+
+    @Param({"mock", "serializing"})
+    public String session;
+
+    private final NavigationHandlerInterceptor interceptor = new NavigationHandlerInterceptor();
+    private MockHttpSession httpSession;
+    private HandlerMethod base;
+    private HandlerMethod step;
+    private HandlerMethod neutral;
+    private long requests;
+
+    @Setup
+    public void setUp() throws Exception {
+        Field field = NavigationHandlerInterceptor.class.getDeclaredField("enrichers");
+        field.setAccessible(true);
+        field.set(interceptor, Collections.singletonList(new NavigationStackEnricher()));
+
+        httpSession = "serializing".equals(session) ? new SerializingHttpSession() : new MockHttpSession();
+        Controller controller = new Controller();
+        base = new HandlerMethod(controller, "showBase");
+        step = new HandlerMethod(controller, "showStep");
+        neutral = new HandlerMethod(controller, "showNeutral");
+        handle(base, "/base/0");
+    }
+
+    @Benchmark
+    public ModelAndView basePage() {
+        return handle(base, (requests++ & 1) == 0 ? "/base/1" : "/base/0");
+    }
+
+    @Benchmark
+    public ModelAndView stepPage() {
+        return handle(step, (requests++ & 1) == 0 ? "/step/1?query=value" : "/step/0?query=value");
+    }
+
+    @Benchmark
+    public ModelAndView neutralPage() {
+        return handle(neutral, "/neutral");
+    }
+
+    private ModelAndView handle(HandlerMethod handler, String uri) {
+        int query = uri.indexOf('?');
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", query < 0 ? uri : uri.substring(0, query));
+        if (query >= 0) {
+            request.setQueryString(uri.substring(query + 1));
+        }
+        request.setSession(httpSession);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ModelAndView modelAndView = new ModelAndView("view");
+
+        interceptor.preHandle(request, response, handler);
+        interceptor.postHandle(request, response, handler, modelAndView);
+        interceptor.afterCompletion(request, response, handler, null);
+        return modelAndView;
+    }
+
+    public static class Controller {
+
+        @NavigationPoint(NavigationPointType.BASE)
+        public String showBase() {
+            return "view";
+        }
+
+        @NavigationPoint(NavigationPointType.STEP)
+        public String showStep() {
+            return "view";
+        }
+
+        public String showNeutral() {
+            return "view";
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package nl.trifork.spring.navigation;
+
+import org.springframework.mock.web.MockHttpSession;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * {@link MockHttpSession} that serializes attributes when they are set and deserializes them when they are read, like
+ * a replicated or externally stored session does.
+ */
+public class SerializingHttpSession extends MockHttpSession {
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        super.setAttribute(name, value == null ? null : new Serialized(serialize(value)));
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        Object value = super.getAttribute(name);
+        return value instanceof Serialized ? deserialize(((Serialized) value).bytes) : value;
+    }
+
+    private static byte[] serialize(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Serialized {
+
+        private final byte[] bytes;
+
+        private Serialized(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
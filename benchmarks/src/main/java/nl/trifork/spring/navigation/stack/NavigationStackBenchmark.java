@@ -0,0 +1,151 @@
+package nl.trifork.spring.navigation.stack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link NavigationStack} operations at different depths, and the handling of a step page request by
+ * the {@link NavigationStackEnricher}.
+ * <p/>
+ * {@link #addStepEvicting(EvictionState)} adds steps to a stack at its maximum depth, of one more than the benchmark
+ * depth, so that every step evicts the oldest one. Eviction only moves the bottom of the stack, so besides the new
+ * snapshot it allocates at most the node of the new step, which the cycling uris of this benchmark share with earlier
+ * pushes. Its allocation rate does therefore not depend on the depth.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NavigationStackBenchmark {
+
+    @Param({"1", "10", "49"})
+    public int depth;
+
+    private final NavigationStackEnricher enricher = new NavigationStackEnricher();
+    private final UriDictionary uriDictionary =
+            new UriDictionary(NavigationStackEnricher.DEFAULT_URI_DICTIONARY_CAPACITY);
+    private NavigationUri[] uris;
+    private NavigationUri next;
+    private NavigationUri otherBase;
+    private NavigationStack stack;
+    private MockHttpServletRequest request;
+    private NavigationStack navigation;
+
+    @Setup
+    public void setUp() {
+        uris = new NavigationUri[depth];
+        for (int i = 0; i < depth; i++) {
+            uris[i] = uriDictionary.intern("/shop/funnel/step-" + i + "?campaign=spring");
+        }
+        next = uriDictionary.intern("/shop/funnel/step-" + depth + "?campaign=spring");
+        otherBase = uriDictionary.intern("/shop/other");
+        stack = NavigationStack.restore(uriDictionary, uris, NavigationStackEnricher.DEFAULT_MAX_DEPTH, 0);
+
+        request = new MockHttpServletRequest("GET", "/shop/funnel/step-" + depth);
+        request.setQueryString("campaign=spring&variant=" + depth);
+        navigation = enricher.updateOnStepPageVisit(enricher.init(), request);
+    }
+
+    @Benchmark
+    public NavigationStack pushAndPop() {
+        stack.addStep(next);
+        stack.removeLastStep();
+        return stack;
+    }
+
+    @Benchmark
+    public NavigationStack.StepVisit visitForwardAndBack() {
+        stack.visitStep(next);
+        return stack.visitStep(uris[uris.length - 1]);
+    }
+
+    @Benchmark
+    public boolean rebase(RebaseState state) {
+        return state.stack.rebase(otherBase);
+    }
+
+    @Benchmark
+    public boolean equalsLastRequestUri() {
+        return stack.equalsLastRequestUri(next);
+    }
+
+    @Benchmark
+    public boolean equalsFormerRequestUri() {
+        return stack.equalsFormerRequestUri(uris[0]);
+    }
+
+    @Benchmark
+    public boolean addStepEvicting(EvictionState state) {
+        return state.stack.addStep(state.next());
+    }
+
+    /**
+     * Refreshes the step page the stack is already at, which mostly measures interning the request uri, including
+     * its query string.
+     */
+    @Benchmark
+    public NavigationStack refreshStepPage() {
+        return enricher.updateOnStepPageVisit(navigation, request);
+    }
+
+    /**
+     * Rebasing empties the stack, so it is restored before each invocation. This makes the measurement of {@link
+     * #rebase(RebaseState)} less precise than that of the other operations.
+     */
+    @State(Scope.Thread)
+    public static class RebaseState {
+
+        private NavigationStack stack;
+
+        @Setup(Level.Invocation)
+        public void restoreStack(NavigationStackBenchmark benchmark) {
+            stack = NavigationStack.restore(benchmark.uriDictionary, benchmark.uris,
+                    NavigationStackEnricher.DEFAULT_MAX_DEPTH, 0);
+        }
+    }
+
+    /**
+     * Holds a stack at its maximum depth, and cycles through twice as many uris as fit on it.
+     */
+    @State(Scope.Thread)
+    public static class EvictionState {
+
+        private NavigationStack stack;
+        private NavigationUri[] uris;
+        private int next;
+
+        @Setup
+        public void fillStack(NavigationStackBenchmark benchmark) {
+            int maxDepth = benchmark.depth + 1;
+            uris = new NavigationUri[2 * maxDepth];
+            for (int i = 0; i < uris.length; i++) {
+                uris[i] = benchmark.uriDictionary.intern("/shop/evicting/step-" + i);
+            }
+            stack = new NavigationStack(benchmark.uriDictionary, benchmark.otherBase, maxDepth);
+            while (stack.getDepth() < maxDepth) {
+                stack.addStep(next());
+            }
+        }
+
+        private NavigationUri next() {
+            NavigationUri uri = uris[next];
+            next = next + 1 < uris.length ? next + 1 : 0;
+            return uri;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package nl.trifork.spring.navigation.stack;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the retained heap of the navigation stacks of simulated sessions, comparing the prefix sharing
+ * {@link NavigationStack} with a plain {@link ArrayList} of uri strings per session, as it was kept before.
+ * <p/>
+ * Each simulated user enters one of a few funnels on a base page and walks through its step pages, occasionally going
+ * back. Run with a fixed heap to get stable numbers, e.g. {@code -XX:+UseSerialGC -Xms1g -Xmx1g}.
+ */
+public class NavigationStackFootprintBenchmark {
+
+    private static final int SESSIONS = 10000;
+    private static final int FUNNELS = 20;
+    private static final int STEPS_PER_FUNNEL = 12;
+    private static final int MAX_DEPTH = NavigationStackEnricher.DEFAULT_MAX_DEPTH;
+    private static final UriDictionary URI_DICTIONARY =
+            new UriDictionary(NavigationStackEnricher.DEFAULT_URI_DICTIONARY_CAPACITY);
+
+    public static void main(String[] args) {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : SESSIONS;
+
+        long baseline = usedHeap();
+        List<List<String>> arrayListStacks = simulateArrayListStacks(sessions);
+        long arrayListBytes = usedHeap() - baseline;
+        report("ArrayList<String>", sessions, arrayListBytes, arrayListStacks.size());
+        arrayListStacks = null;
+
+        baseline = usedHeap();
+        List<NavigationStack> navigationStacks = simulateNavigationStacks(sessions);
+        long navigationStackBytes = usedHeap() - baseline;
+        report("NavigationStack", sessions, navigationStackBytes, navigationStacks.size());
+        System.out.printf("%-20s %,d distinct nodes%n", "", URI_DICTIONARY.getNodeCount());
+    }
+
+    private static List<List<String>> simulateArrayListStacks(int sessions) {
+        Random random = new Random(42);
+        List<List<String>> stacks = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            int funnel = random.nextInt(FUNNELS);
+            List<String> stack = new ArrayList<>();
+            stack.add(uri(funnel, -1));
+            int visits = random.nextInt(2 * STEPS_PER_FUNNEL);
+            int step = 0;
+            for (int visit = 0; visit < visits; visit++) {
+                if (random.nextInt(5) == 0 && stack.size() > 1) {
+                    stack.remove(stack.size() - 1);
+                    step--;
+                } else if (step < STEPS_PER_FUNNEL && stack.size() < MAX_DEPTH) {
+                    stack.add(uri(funnel, step++));
+                }
+            }
+            stacks.add(stack);
+        }
+        return stacks;
+    }
+
+    private static List<NavigationStack> simulateNavigationStacks(int sessions) {
+        Random random = new Random(42);
+        List<NavigationStack> stacks = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            int funnel = random.nextInt(FUNNELS);
+            NavigationUri baseUri = URI_DICTIONARY.intern(uri(funnel, -1));
+            NavigationStack stack = new NavigationStack(URI_DICTIONARY, baseUri, MAX_DEPTH);
+            int visits = random.nextInt(2 * STEPS_PER_FUNNEL);
+            int step = 0;
+            for (int visit = 0; visit < visits; visit++) {
+                if (random.nextInt(5) == 0 && stack.getDepth() > 1) {
+                    stack.removeLastStep();
+                    step--;
+                } else if (step < STEPS_PER_FUNNEL && stack.getDepth() < MAX_DEPTH) {
+                    stack.addStep(URI_DICTIONARY.intern(uri(funnel, step++)));
+                }
+            }
+            stacks.add(stack);
+        }
+        return stacks;
+    }
+
+    /**
+     * Builds a fresh uri string, like a request does.
+     */
+    private static String uri(int funnel, int step) {
+        StringBuilder uri = new StringBuilder("/shop/funnel-").append(funnel);
+        if (step >= 0) {
+            uri.append("/step-").append(step).append("?campaign=spring&variant=").append(funnel % 3);
+        }
+        return uri.toString();
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+
+    private static void report(String implementation, int sessions, long bytes, int stacks) {
+        System.out.printf("%-20s %,d bytes for %,d sessions (%,d bytes per session, %,d stacks)%n",
+                implementation, bytes, sessions, bytes / sessions, stacks);
+    }
+}
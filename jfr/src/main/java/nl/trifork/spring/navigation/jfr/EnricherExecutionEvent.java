@@ -0,0 +1,39 @@
+package nl.trifork.spring.navigation.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import nl.trifork.spring.navigation.EnricherCallbackTracer;
+
+/**
+ * Flight recorder event of the execution of a {@link nl.trifork.spring.navigation.NavigationalStateEnricher} callback.
+ * Its duration is the execution time, as timed by the flight recorder between {@link #begin()} and {@link #end()}.
+ */
+@Name("nl.trifork.spring.navigation.EnricherExecution")
+@Label("Navigation Enricher Execution")
+@Description("The execution of a navigational state enricher callback")
+@Category("Spring Navigation")
+@Enabled(false)
+@StackTrace(false)
+class EnricherExecutionEvent extends Event implements EnricherCallbackTracer.Trace {
+
+    @Label("Attribute")
+    @Description("The name of the attribute the enricher manages")
+    String attribute;
+
+    @Label("Callback")
+    String callback;
+
+    @Override
+    public void finish() {
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package nl.trifork.spring.navigation.jfr;
+
+import jdk.jfr.EventType;
+import nl.trifork.spring.navigation.EnricherCallbackTracer;
+import nl.trifork.spring.navigation.NavigationMetrics;
+import nl.trifork.spring.navigation.NavigationPointType;
+import nl.trifork.spring.navigation.NavigationalStateEnricher;
+
+/**
+ * {@link NavigationMetrics} that emits Java Flight Recorder events, so that navigation handling shows up in recordings
+ * next to e.g. garbage collection and I/O. It emits an event per navigation stack transition ({@code
+ * nl.trifork.spring.navigation.Transition}), per enricher callback ({@code
+ * nl.trifork.spring.navigation.EnricherExecution}) and per saved attribute ({@code
+ * nl.trifork.spring.navigation.StateSave}).
+ * <p/>
+ * The events are disabled by default; enable them in the recording settings, e.g. {@code
+ * jfr configure nl.trifork.spring.navigation.Transition#enabled=true}. While disabled, recording a measurement
+ * amounts to a check of the enabled state of the event type; no event is allocated. Enricher callbacks are traced
+ * with the clock of the flight recorder, see {@link EnricherCallbackTracer}, so the interceptor does not time them
+ * while the event is disabled.
+ * <p/>
+ * Part of the spring-navigation-jfr module, which requires Java 11 or later.
+ */
+public class JfrNavigationMetrics implements NavigationMetrics, EnricherCallbackTracer {
+
+    private static final EventType ENRICHER_EXECUTION = EventType.getEventType(EnricherExecutionEvent.class);
+    private static final EventType TRANSITION = EventType.getEventType(NavigationTransitionEvent.class);
+    private static final EventType STATE_SAVE = EventType.getEventType(StateSaveEvent.class);
+
+    @Override
+    public void register(NavigationalStateEnricher<?> enricher) {
+    }
+
+    @Override
+    public Trace begin(NavigationalStateEnricher<?> enricher, EnricherCallback callback) {
+        if (!ENRICHER_EXECUTION.isEnabled()) {
+            return null;
+        }
+        EnricherExecutionEvent event = new EnricherExecutionEvent();
+        event.attribute = enricher.sessionAttributeName();
+        event.callback = callback.name();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation records nothing, as callbacks are traced, see {@link #begin}.
+     */
+    @Override
+    public boolean isTimingRequired() {
+        return false;
+    }
+
+    @Override
+    public void recordEnricherCallback(NavigationalStateEnricher<?> enricher, EnricherCallback callback, long nanos) {
+    }
+
+    @Override
+    public void recordRequest(NavigationPointType navigationPointType) {
+    }
+
+    @Override
+    public void recordTransition(Transition transition, int depth, int uriId) {
+        if (TRANSITION.isEnabled()) {
+            NavigationTransitionEvent event = new NavigationTransitionEvent();
+            event.transition = transition.name();
+            event.depth = depth;
+            event.uriId = uriId;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void recordStateLoad() {
+    }
+
+    @Override
+    public void recordStateSave(String attributeName, int size) {
+        if (STATE_SAVE.isEnabled()) {
+            StateSaveEvent event = new StateSaveEvent();
+            event.attribute = attributeName;
+            event.size = size;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package nl.trifork.spring.navigation.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a navigation point visit that updated a navigation stack.
+ */
+@Name("nl.trifork.spring.navigation.Transition")
+@Label("Navigation Transition")
+@Description("A navigation point visit that updated a navigation stack")
+@Category("Spring Navigation")
+@Enabled(false)
+@StackTrace(false)
+class NavigationTransitionEvent extends Event {
+
+    @Label("Transition")
+    @Description("Rebase, forward, back or refresh")
+    String transition;
+
+    @Label("Depth")
+    @Description("The number of uris in the navigation stack after the update")
+    int depth;
+
+    @Label("Uri Id")
+    @Description("The JVM-local id of the visited uri in the uri dictionary")
+    int uriId;
+
+}
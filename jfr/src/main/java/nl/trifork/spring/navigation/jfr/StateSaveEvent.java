@@ -0,0 +1,32 @@
+package nl.trifork.spring.navigation.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of saving a navigational state attribute to the {@link
+ * nl.trifork.spring.navigation.NavigationStateRepository}.
+ */
+@Name("nl.trifork.spring.navigation.StateSave")
+@Label("Navigation State Save")
+@Description("Saving a navigational state attribute")
+@Category("Spring Navigation")
+@Enabled(false)
+@StackTrace(false)
+class StateSaveEvent extends Event {
+
+    @Label("Attribute")
+    String attribute;
+
+    @Label("Size")
+    @Description("The size of the saved attribute, or -1 in case it is not known")
+    @DataAmount
+    int size;
+
+}
@@ -0,0 +1,103 @@
+package nl.trifork.spring.navigation.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import nl.trifork.spring.navigation.AbstractNavigationTest;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BaseAndStepPagesMethodAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.StepPagesClassAnnotatedController;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+public class JfrNavigationMetricsTest extends AbstractNavigationTest {
+
+    @Override
+    protected Object[] getControllersUnderTest() {
+        return new Object[] {
+                new BasePageClassAnnotatedController(),
+                new StepPagesClassAnnotatedController(),
+                new BaseAndStepPagesMethodAnnotatedController()
+        };
+    }
+
+    @Override
+    protected Object[] getNavigationBeans() {
+        return new Object[] { new JfrNavigationMetrics() };
+    }
+
+    @Test
+    public void transitions_are_recorded_when_enabled() throws Exception {
+        List<RecordedEvent> events = record(true);
+
+        List<String> transitions = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("nl.trifork.spring.navigation.Transition")) {
+                transitions.add(event.getString("transition") + "@" + event.getInt("depth"));
+            }
+        }
+        assertThat(transitions, contains("REBASE@1", "FORWARD@2", "REFRESH@2", "FORWARD@3", "BACK@2"));
+    }
+
+    @Test
+    public void enricher_executions_and_state_saves_are_recorded_when_enabled() throws Exception {
+        int executions = 0;
+        int saves = 0;
+        for (RecordedEvent event : record(true)) {
+            String name = event.getEventType().getName();
+            if (name.equals("nl.trifork.spring.navigation.EnricherExecution")) {
+                executions++;
+            } else if (name.equals("nl.trifork.spring.navigation.StateSave")) {
+                assertThat(event.getString("attribute"), is("navigation"));
+                saves++;
+            }
+        }
+        assertThat(executions, is(11));
+        assertThat(saves, is(4));
+    }
+
+    @Test
+    public void nothing_is_recorded_by_default() throws Exception {
+        assertThat(record(false), is(empty()));
+    }
+
+    private List<RecordedEvent> record(boolean enabled) throws Exception {
+        Path file = Files.createTempFile("navigation", ".jfr");
+        try (Recording recording = new Recording()) {
+            if (enabled) {
+                recording.enable(NavigationTransitionEvent.class);
+                recording.enable(EnricherExecutionEvent.class);
+                recording.enable(StateSaveEvent.class);
+            }
+            recording.start();
+            getMockMvc().perform(get("/base").session(getSession()));
+            getMockMvc().perform(get("/base/step/one").session(getSession()));
+            getMockMvc().perform(get("/base/step/one").session(getSession()));
+            getMockMvc().perform(get("/base/step/two").session(getSession()));
+            getMockMvc().perform(get("/base/step/one").session(getSession()));
+            recording.stop();
+            recording.dump(file);
+        }
+        try {
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().startsWith("nl.trifork.spring.navigation.")) {
+                    events.add(event);
+                }
+            }
+            return events;
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
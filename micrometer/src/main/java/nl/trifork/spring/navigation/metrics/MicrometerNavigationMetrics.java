@@ -0,0 +1,146 @@
+package nl.trifork.spring.navigation.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import nl.trifork.spring.navigation.NavigationMetrics;
+import nl.trifork.spring.navigation.NavigationPointType;
+import nl.trifork.spring.navigation.NavigationalStateEnricher;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NavigationMetrics} that publishes the measurements as Micrometer meters:
+ * <ul>
+ * <li>{@code navigation.enricher}: a timer per enricher, tagged with its {@code attribute} name, and {@code
+ * callback};</li>
+ * <li>{@code navigation.requests}: a counter per navigation point {@code type}, {@code base}, {@code step} or {@code
+ * none};</li>
+ * <li>{@code navigation.visits}: a counter per {@code outcome}, {@code back} or {@code refresh};</li>
+ * <li>{@code navigation.stack.depth}: a distribution summary of the navigation stack depth;</li>
+ * <li>{@code navigation.state}: a counter per {@code operation}, {@code load} or {@code save}.</li>
+ * </ul>
+ * All meters are registered up front, the enricher timers when the enricher is registered, so recording never
+ * allocates tags. The timers of an enricher are looked up by identity in a small array that is copied on
+ * registration, so recording neither hashes nor locks.
+ * <p/>
+ * Part of the spring-navigation-micrometer module, which requires Java 8 or later, like Micrometer itself.
+ */
+public class MicrometerNavigationMetrics implements NavigationMetrics {
+
+    private static final EnricherCallback[] CALLBACKS = EnricherCallback.values();
+
+    private final MeterRegistry registry;
+    private volatile EnricherTimers[] enricherTimers = new EnricherTimers[0];
+    private final Counter baseRequests;
+    private final Counter stepRequests;
+    private final Counter otherRequests;
+    private final Counter backs;
+    private final Counter refreshes;
+    private final DistributionSummary stackDepth;
+    private final Counter stateLoads;
+    private final Counter stateSaves;
+
+    /**
+     * Creates a new {@link MicrometerNavigationMetrics}, registering its meters in the given registry.
+     *
+     * @param registry the registry to register the meters in
+     */
+    public MicrometerNavigationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.baseRequests = registry.counter("navigation.requests", "type", "base");
+        this.stepRequests = registry.counter("navigation.requests", "type", "step");
+        this.otherRequests = registry.counter("navigation.requests", "type", "none");
+        this.backs = registry.counter("navigation.visits", "outcome", "back");
+        this.refreshes = registry.counter("navigation.visits", "outcome", "refresh");
+        this.stackDepth = registry.summary("navigation.stack.depth");
+        this.stateLoads = registry.counter("navigation.state", "operation", "load");
+        this.stateSaves = registry.counter("navigation.state", "operation", "save");
+    }
+
+    @Override
+    public void register(NavigationalStateEnricher<?> enricher) {
+        timersOf(enricher);
+    }
+
+    @Override
+    public void recordEnricherCallback(NavigationalStateEnricher<?> enricher, EnricherCallback callback, long nanos) {
+        timersOf(enricher)[callback.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordRequest(NavigationPointType navigationPointType) {
+        if (navigationPointType == NavigationPointType.BASE) {
+            baseRequests.increment();
+        } else if (navigationPointType == NavigationPointType.STEP) {
+            stepRequests.increment();
+        } else {
+            otherRequests.increment();
+        }
+    }
+
+    @Override
+    public void recordTransition(Transition transition, int depth, int uriId) {
+        if (transition == Transition.BACK) {
+            backs.increment();
+        } else if (transition == Transition.REFRESH) {
+            refreshes.increment();
+        }
+        stackDepth.record(depth);
+    }
+
+    @Override
+    public void recordStateLoad() {
+        stateLoads.increment();
+    }
+
+    @Override
+    public void recordStateSave(String attributeName, int size) {
+        stateSaves.increment();
+    }
+
+    private Timer[] timersOf(NavigationalStateEnricher<?> enricher) {
+        for (EnricherTimers registered : enricherTimers) {
+            if (registered.enricher == enricher) {
+                return registered.timers;
+            }
+        }
+        return registerTimers(enricher);
+    }
+
+    /**
+     * Registers the timers of an enricher that is not registered yet, and adds them to a copy of the array.
+     */
+    private synchronized Timer[] registerTimers(NavigationalStateEnricher<?> enricher) {
+        EnricherTimers[] current = enricherTimers;
+        for (EnricherTimers registered : current) {
+            if (registered.enricher == enricher) {
+                return registered.timers;
+            }
+        }
+        Timer[] timers = new Timer[CALLBACKS.length];
+        for (EnricherCallback callback : CALLBACKS) {
+            timers[callback.ordinal()] = registry.timer("navigation.enricher",
+                    "attribute", enricher.sessionAttributeName(),
+                    "callback", callback.name().toLowerCase(Locale.ENGLISH));
+        }
+        EnricherTimers[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = new EnricherTimers(enricher, timers);
+        enricherTimers = updated;
+        return timers;
+    }
+
+    private static final class EnricherTimers {
+
+        private final NavigationalStateEnricher<?> enricher;
+        private final Timer[] timers;
+
+        private EnricherTimers(NavigationalStateEnricher<?> enricher, Timer[] timers) {
+            this.enricher = enricher;
+            this.timers = timers;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package nl.trifork.spring.navigation.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.trifork.spring.navigation.AbstractNavigationTest;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BaseAndStepPagesMethodAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.StepPagesClassAnnotatedController;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+public class MicrometerNavigationMetricsTest extends AbstractNavigationTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Override
+    protected Object[] getControllersUnderTest() {
+        return new Object[] {
+                new BasePageClassAnnotatedController(),
+                new StepPagesClassAnnotatedController(),
+                new BaseAndStepPagesMethodAnnotatedController()
+        };
+    }
+
+    @Override
+    protected Object[] getNavigationBeans() {
+        return new Object[] { new MicrometerNavigationMetrics(registry) };
+    }
+
+    @Test
+    public void navigation_point_visits_are_counted() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()));
+        getMockMvc().perform(get("/base/step/two").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()));
+        getMockMvc().perform(get("/no_navigation_point").session(getSession()));
+
+        assertThat(registry.get("navigation.requests").tag("type", "base").counter().count(), is(1.0));
+        assertThat(registry.get("navigation.requests").tag("type", "step").counter().count(), is(4.0));
+        assertThat(registry.get("navigation.requests").tag("type", "none").counter().count(), is(1.0));
+        assertThat(registry.get("navigation.visits").tag("outcome", "refresh").counter().count(), is(1.0));
+        assertThat(registry.get("navigation.visits").tag("outcome", "back").counter().count(), is(1.0));
+        assertThat(registry.get("navigation.stack.depth").summary().max(), is(3.0));
+    }
+
+    @Test
+    public void enricher_callbacks_are_timed() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()));
+
+        assertThat(registry.get("navigation.enricher").tags("attribute", "navigation", "callback", "init")
+                .timer().count(), is(1L));
+        assertThat(registry.get("navigation.enricher").tags("attribute", "navigation", "callback", "base_page_visit")
+                .timer().count(), is(1L));
+        assertThat(registry.get("navigation.enricher").tags("attribute", "navigation", "callback", "step_page_visit")
+                .timer().count(), is(1L));
+        assertThat(registry.get("navigation.enricher").tags("attribute", "navigation", "callback", "post_handle")
+                .timer().count(), is(2L));
+    }
+
+    @Test
+    public void state_loads_and_saves_are_counted() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base").session(getSession()));
+
+        assertThat(registry.get("navigation.state").tag("operation", "load").counter().count(), is(2.0));
+        assertThat(registry.get("navigation.state").tag("operation", "save").counter().count(), is(1.0));
+    }
+}
@@ -0,0 +1,82 @@
+package nl.trifork.spring.navigation;
+
+import java.util.Arrays;
+
+/**
+ * Unpadded base64 encoding with the URL and filename safe alphabet of RFC 4648, which is also valid in cookie values
+ * and http headers.
+ */
+final class Base64Url {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Url() {
+    }
+
+    /**
+     * Encodes the given bytes.
+     *
+     * @param bytes the bytes to encode
+     * @return the unpadded base64url encoding
+     */
+    static String encode(byte[] bytes) {
+        StringBuilder encoded = new StringBuilder((bytes.length * 4 + 2) / 3);
+        int i = 0;
+        for (; i + 2 < bytes.length; i += 3) {
+            int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            encoded.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3F])
+                   .append(ALPHABET[(bits >>> 6) & 0x3F]).append(ALPHABET[bits & 0x3F]);
+        }
+        int remaining = bytes.length - i;
+        if (remaining == 1) {
+            int bits = (bytes[i] & 0xFF) << 16;
+            encoded.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3F]);
+        } else if (remaining == 2) {
+            int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8;
+            encoded.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3F])
+                   .append(ALPHABET[(bits >>> 6) & 0x3F]);
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Decodes the given unpadded base64url encoding.
+     *
+     * @param encoded the encoding
+     * @return the decoded bytes
+     * @throws IllegalArgumentException in case {@code encoded} is not a valid unpadded base64url encoding
+     */
+    static byte[] decode(CharSequence encoded) {
+        int length = encoded.length();
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Invalid base64url length: " + length);
+        }
+        byte[] bytes = new byte[length * 3 / 4];
+        int bits = 0;
+        int bitCount = 0;
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            char c = encoded.charAt(i);
+            int value = c < VALUES.length ? VALUES[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid base64url character: " + c);
+            }
+            bits = bits << 6 | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                bytes[position++] = (byte) (bits >>> bitCount);
+            }
+        }
+        return bytes;
+    }
+}
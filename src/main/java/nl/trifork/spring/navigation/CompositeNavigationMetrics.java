@@ -0,0 +1,136 @@
+package nl.trifork.spring.navigation;
+
+import java.util.Arrays;
+
+/**
+ * {@link NavigationMetrics} that passes all measurements on to several others, e.g. to both publish metrics and emit
+ * flight recorder events.
+ * <p/>
+ * Enricher callbacks are traced by the delegates that are an {@link EnricherCallbackTracer}, and timed by the
+ * interceptor for the others, see {@link #isTimingRequired()}. The trace of a single tracing delegate is passed on as
+ * it is, so only composites of several tracing delegates allocate while tracing a callback.
+ */
+public class CompositeNavigationMetrics implements NavigationMetrics, EnricherCallbackTracer {
+
+    private final NavigationMetrics[] delegates;
+    private final boolean timed;
+
+    /**
+     * Creates a new {@link CompositeNavigationMetrics}.
+     *
+     * @param delegates the metrics to pass the measurements on to
+     */
+    public CompositeNavigationMetrics(NavigationMetrics... delegates) {
+        this.delegates = Arrays.copyOf(delegates, delegates.length);
+        boolean timed = false;
+        for (NavigationMetrics delegate : delegates) {
+            timed |= delegate instanceof EnricherCallbackTracer
+                    ? ((EnricherCallbackTracer) delegate).isTimingRequired() : delegate != NONE;
+        }
+        this.timed = timed;
+    }
+
+    @Override
+    public Trace begin(NavigationalStateEnricher<?> enricher, EnricherCallback callback) {
+        Trace first = null;
+        Trace[] traces = null;
+        int count = 0;
+        for (NavigationMetrics delegate : delegates) {
+            if (delegate instanceof EnricherCallbackTracer) {
+                Trace trace = ((EnricherCallbackTracer) delegate).begin(enricher, callback);
+                if (trace == null) {
+                    continue;
+                }
+                if (first == null) {
+                    first = trace;
+                } else {
+                    if (traces == null) {
+                        traces = new Trace[delegates.length];
+                        traces[count++] = first;
+                    }
+                    traces[count++] = trace;
+                }
+            }
+        }
+        return traces == null ? first : new CompositeTrace(traces, count);
+    }
+
+    /**
+     * @return {@code true} in case any of the delegates times callbacks, rather than tracing them
+     */
+    @Override
+    public boolean isTimingRequired() {
+        return timed;
+    }
+
+    @Override
+    public void register(NavigationalStateEnricher<?> enricher) {
+        for (NavigationMetrics delegate : delegates) {
+            delegate.register(enricher);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The time is only passed on to the delegates that do not trace the callbacks themselves, or require timing.
+     */
+    @Override
+    public void recordEnricherCallback(NavigationalStateEnricher<?> enricher, EnricherCallback callback, long nanos) {
+        for (NavigationMetrics delegate : delegates) {
+            if (!(delegate instanceof EnricherCallbackTracer)
+                || ((EnricherCallbackTracer) delegate).isTimingRequired()) {
+                delegate.recordEnricherCallback(enricher, callback, nanos);
+            }
+        }
+    }
+
+    @Override
+    public void recordRequest(NavigationPointType navigationPointType) {
+        for (NavigationMetrics delegate : delegates) {
+            delegate.recordRequest(navigationPointType);
+        }
+    }
+
+    @Override
+    public void recordTransition(Transition transition, int depth, int uriId) {
+        for (NavigationMetrics delegate : delegates) {
+            delegate.recordTransition(transition, depth, uriId);
+        }
+    }
+
+    @Override
+    public void recordStateLoad() {
+        for (NavigationMetrics delegate : delegates) {
+            delegate.recordStateLoad();
+        }
+    }
+
+    @Override
+    public void recordStateSave(String attributeName, int size) {
+        for (NavigationMetrics delegate : delegates) {
+            delegate.recordStateSave(attributeName, size);
+        }
+    }
+
+    /**
+     * Trace that finishes the traces of several tracing delegates.
+     */
+    private static final class CompositeTrace implements Trace {
+
+        private final Trace[] traces;
+        private final int count;
+
+        private CompositeTrace(Trace[] traces, int count) {
+            this.traces = traces;
+            this.count = count;
+        }
+
+        @Override
+        public void finish() {
+            for (int i = 0; i < count; i++) {
+                traces[i].finish();
+            }
+        }
+    }
+}
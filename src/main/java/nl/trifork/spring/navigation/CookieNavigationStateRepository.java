@@ -0,0 +1,60 @@
+package nl.trifork.spring.navigation;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collection;
+
+/**
+ * {@link SignedTokenNavigationStateRepository} that carries each attribute in an http-only cookie named after the
+ * attribute. The cookie lives as long as the browser session and is only marked secure on secure requests.
+ */
+public class CookieNavigationStateRepository extends SignedTokenNavigationStateRepository {
+
+    private String cookiePath = "/";
+
+    /**
+     * Creates a new {@link CookieNavigationStateRepository}.
+     *
+     * @param secret the secret the cookies are signed with, shared by all servers, at least 16 bytes
+     * @param enrichers the enrichers of which the state is kept, each of which should provide a codec
+     * @throws IllegalArgumentException in case the secret is too short or an enricher has no codec
+     */
+    public CookieNavigationStateRepository(byte[] secret,
+                                           Collection<? extends NavigationalStateEnricher<?>> enrichers) {
+        super(secret, enrichers);
+    }
+
+    /**
+     * Sets the path of the cookies. Defaults to {@code /}.
+     *
+     * @param cookiePath the cookie path
+     */
+    public void setCookiePath(String cookiePath) {
+        this.cookiePath = cookiePath;
+    }
+
+    @Override
+    protected String readToken(HttpServletRequest request, String attributeName) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (attributeName.equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void writeToken(HttpServletRequest request, HttpServletResponse response, String attributeName,
+                              String token) {
+        Cookie cookie = new Cookie(attributeName, token == null ? "" : token);
+        cookie.setPath(cookiePath);
+        cookie.setHttpOnly(true);
+        cookie.setSecure(request.isSecure());
+        cookie.setMaxAge(token == null ? 0 : -1);
+        response.addCookie(cookie);
+    }
+}
@@ -0,0 +1,44 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.NavigationMetrics.EnricherCallback;
+
+/**
+ * Optionally implemented by {@link NavigationMetrics} that time enricher callbacks themselves, e.g. as flight recorder
+ * events with their own clock. The {@link NavigationHandlerInterceptor} then begins a trace before each callback and
+ * finishes it afterwards, instead of timing the callback and calling {@link
+ * NavigationMetrics#recordEnricherCallback}, unless {@link #isTimingRequired()}. While callbacks are not traced, e.g.
+ * because the events are disabled, {@link #begin} returns {@code null} and nothing is measured at all.
+ * <p/>
+ * The {@code JfrNavigationMetrics} of the spring-navigation-jfr module are an example.
+ */
+public interface EnricherCallbackTracer {
+
+    /**
+     * Begins tracing a callback of the given enricher.
+     *
+     * @param enricher the enricher
+     * @param callback the callback
+     * @return the trace to finish once the callback returned, or {@code null} in case the callback is not traced
+     */
+    Trace begin(NavigationalStateEnricher<?> enricher, EnricherCallback callback);
+
+    /**
+     * Tells whether the callbacks also need to be timed and recorded with {@link
+     * NavigationMetrics#recordEnricherCallback}, e.g. for metrics that only trace some of them.
+     *
+     * @return {@code true} in case the callbacks are to be timed besides being traced
+     */
+    boolean isTimingRequired();
+
+    /**
+     * A begun trace of an enricher callback.
+     */
+    interface Trace {
+
+        /**
+         * Finishes the trace, once the callback returned.
+         */
+        void finish();
+
+    }
+}
@@ -0,0 +1,44 @@
+package nl.trifork.spring.navigation;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collection;
+
+/**
+ * {@link SignedTokenNavigationStateRepository} that carries each attribute in an http header, for clients such as
+ * single page applications that manage the token themselves. The token is read from the request header {@code
+ * X-Navigation-<attribute name>} and a changed token is returned in the response header of the same name; the client
+ * is expected to send the latest token it received with every request. An empty response header means the client
+ * should discard its token.
+ */
+public class HeaderNavigationStateRepository extends SignedTokenNavigationStateRepository {
+
+    /**
+     * The prefix of the header names, which are followed by the attribute name.
+     */
+    public static final String HEADER_PREFIX = "X-Navigation-";
+
+    /**
+     * Creates a new {@link HeaderNavigationStateRepository}.
+     *
+     * @param secret the secret the tokens are signed with, shared by all servers, at least 16 bytes
+     * @param enrichers the enrichers of which the state is kept, each of which should provide a codec
+     * @throws IllegalArgumentException in case the secret is too short or an enricher has no codec
+     */
+    public HeaderNavigationStateRepository(byte[] secret,
+                                           Collection<? extends NavigationalStateEnricher<?>> enrichers) {
+        super(secret, enrichers);
+    }
+
+    @Override
+    protected String readToken(HttpServletRequest request, String attributeName) {
+        String token = request.getHeader(HEADER_PREFIX + attributeName);
+        return token == null || token.isEmpty() ? null : token;
+    }
+
+    @Override
+    protected void writeToken(HttpServletRequest request, HttpServletResponse response, String attributeName,
+                              String token) {
+        response.setHeader(HEADER_PREFIX + attributeName, token == null ? "" : token);
+    }
+}
@@ -0,0 +1,25 @@
+package nl.trifork.spring.navigation;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * {@link NavigationStateRepository} that keeps the navigational state as attributes on the {@link HttpSession}.
+ * A session is only created when state is saved.
+ */
+public class HttpSessionNavigationStateRepository implements NavigationStateRepository {
+
+    @Override
+    public Object load(HttpServletRequest request, String attributeName) {
+        HttpSession session = request.getSession(false);
+        return session == null ? null : session.getAttribute(attributeName);
+    }
+
+    @Override
+    public int save(HttpServletRequest request, HttpServletResponse response, String attributeName, Object value) {
+        request.getSession().setAttribute(attributeName, value);
+        return -1;
+    }
+
+}
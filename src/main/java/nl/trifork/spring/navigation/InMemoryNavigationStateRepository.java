@@ -0,0 +1,292 @@
+package nl.trifork.spring.navigation;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NavigationStateRepository} that keeps the navigational state in memory, outside of the {@link HttpSession},
+ * keyed by session id. This keeps navigational state, which is cheap to lose but expensive to replicate, off a
+ * replicated or externally stored session.
+ * <p/>
+ * The store is split in stripes that are locked independently. Each stripe holds a bounded number of sessions and
+ * evicts the least recently used one when full. The state of a session that has been idle for longer than the
+ * maximum idle time is discarded on access or by {@link #evictExpired()}. The stripes are the segments in which the
+ * {@link NavigationStateSweeper} compacts the state of idle sessions.
+ * <p/>
+ * When a {@link NavigationMemoryAccounting} is set, the accounts of sessions of which the state is evicted or expires
+ * are removed, and those of compacted state are updated, so that the accounting keeps matching what is kept.
+ * <p/>
+ * The repository is an {@link HttpSessionListener} that removes the state of destroyed sessions; register it with the
+ * servlet container, e.g. through {@link javax.servlet.ServletContext#addListener(java.util.EventListener)}, for
+ * state to be released as soon as sessions end.
+ */
+public class InMemoryNavigationStateRepository implements SweepableNavigationStateRepository, HttpSessionListener {
+
+    /**
+     * The default maximum number of sessions of which the state is kept.
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+    /**
+     * The default maximum idle time, in minutes.
+     */
+    public static final int DEFAULT_MAX_IDLE_MINUTES = 30;
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long maxIdleMillis;
+    private NavigationMemoryAccounting navigationMemoryAccounting;
+
+    /**
+     * Constructs a new {@link InMemoryNavigationStateRepository} keeping the state of at most
+     * {@value #DEFAULT_MAX_SESSIONS} sessions, for at most {@value #DEFAULT_MAX_IDLE_MINUTES} minutes of inactivity.
+     */
+    public InMemoryNavigationStateRepository() {
+        this(DEFAULT_MAX_SESSIONS, DEFAULT_MAX_IDLE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Constructs a new {@link InMemoryNavigationStateRepository}.
+     *
+     * @param maxSessions the maximum number of sessions of which the state is kept
+     * @param maxIdleTime the time after which the state of an inactive session is discarded
+     * @param unit the unit of {@code maxIdleTime}
+     * @throws IllegalArgumentException in case {@code maxSessions} is smaller than the number of stripes, or
+     *                                  {@code maxIdleTime} is not positive
+     */
+    public InMemoryNavigationStateRepository(int maxSessions, long maxIdleTime, TimeUnit unit) {
+        if (maxSessions < STRIPES) {
+            throw new IllegalArgumentException("Max sessions should be at least " + STRIPES + ", but was: "
+                    + maxSessions);
+        }
+        if (maxIdleTime <= 0) {
+            throw new IllegalArgumentException("Max idle time should be positive, but was: " + maxIdleTime);
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxSessions / STRIPES);
+        }
+        this.maxIdleMillis = unit.toMillis(maxIdleTime);
+    }
+
+    /**
+     * Sets the accounting to update when state is evicted, expires or is compacted. Optional.
+     *
+     * @param navigationMemoryAccounting the accounting of the state kept by this repository
+     */
+    @Autowired(required = false)
+    public void setNavigationMemoryAccounting(NavigationMemoryAccounting navigationMemoryAccounting) {
+        this.navigationMemoryAccounting = navigationMemoryAccounting;
+    }
+
+    @Override
+    public Object load(HttpServletRequest request, String attributeName) {
+        HttpSession session = request.getSession(false);
+        if (session == null) {
+            return null;
+        }
+        String sessionId = session.getId();
+        Stripe stripe = stripeFor(sessionId);
+        synchronized (stripe) {
+            SessionState state = stripe.sessions.get(sessionId);
+            if (state == null) {
+                return null;
+            }
+            long now = currentTimeMillis();
+            if (state.isExpired(now, maxIdleMillis)) {
+                stripe.sessions.remove(sessionId);
+                discarded(sessionId);
+                return null;
+            }
+            state.lastAccessTime = now;
+            return state.attributes.get(attributeName);
+        }
+    }
+
+    @Override
+    public int save(HttpServletRequest request, HttpServletResponse response, String attributeName, Object value) {
+        String sessionId = request.getSession().getId();
+        Stripe stripe = stripeFor(sessionId);
+        synchronized (stripe) {
+            SessionState state = stripe.sessions.get(sessionId);
+            if (state == null) {
+                state = new SessionState();
+                stripe.sessions.put(sessionId, state);
+            }
+            state.lastAccessTime = currentTimeMillis();
+            state.attributes.put(attributeName, value);
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the state of the session with the given id.
+     *
+     * @param sessionId the id of the session
+     */
+    public void remove(String sessionId) {
+        Stripe stripe = stripeFor(sessionId);
+        synchronized (stripe) {
+            stripe.sessions.remove(sessionId);
+        }
+        discarded(sessionId);
+    }
+
+    /**
+     * Removes the state of all sessions that have been idle for longer than the maximum idle time. Locks one stripe at
+     * a time, so concurrent requests are only held up briefly.
+     *
+     * @return the number of sessions of which the state was removed
+     */
+    public int evictExpired() {
+        long now = currentTimeMillis();
+        int evicted = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Iterator<Map.Entry<String, SessionState>> iterator = stripe.sessions.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, SessionState> entry = iterator.next();
+                    if (entry.getValue().isExpired(now, maxIdleMillis)) {
+                        iterator.remove();
+                        discarded(entry.getKey());
+                        evicted++;
+                    }
+                }
+            }
+        }
+        return evicted;
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return STRIPES;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation locks the stripe of the segment while compacting it, and also removes the state of expired
+     * sessions in it. Compacted attributes are accounted for again in case the compactor is the {@link
+     * NavigationalStateEnricher} of the attributes.
+     */
+    @Override
+    public long compactIdle(int segment, long minIdleMillis, NavigationStateCompactor compactor) {
+        Stripe stripe = stripes[segment];
+        long now = currentTimeMillis();
+        long reclaimed = 0;
+        synchronized (stripe) {
+            Iterator<Map.Entry<String, SessionState>> iterator = stripe.sessions.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, SessionState> entry = iterator.next();
+                SessionState state = entry.getValue();
+                if (state.isExpired(now, maxIdleMillis)) {
+                    iterator.remove();
+                    discarded(entry.getKey());
+                } else if (now - state.lastAccessTime >= minIdleMillis
+                        && state.compactedAccessTime != state.lastAccessTime) {
+                    for (Map.Entry<String, Object> attribute : state.attributes.entrySet()) {
+                        if (attribute.getValue() != null) {
+                            long compacted = compactor.compact(attribute.getKey(), attribute.getValue());
+                            if (compacted > 0) {
+                                compacted(entry.getKey(), compactor, attribute.getValue());
+                            }
+                            reclaimed += compacted;
+                        }
+                    }
+                    state.compactedAccessTime = state.lastAccessTime;
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Get the number of sessions of which state is kept.
+     *
+     * @return the number of sessions of which state is kept
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.sessions.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void sessionCreated(HttpSessionEvent se) {
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent se) {
+        remove(se.getSession().getId());
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Removes the account of the session with the given id, of which the state is no longer kept.
+     */
+    private void discarded(String sessionId) {
+        if (navigationMemoryAccounting != null) {
+            navigationMemoryAccounting.remove(sessionId);
+        }
+    }
+
+    /**
+     * Accounts for the given compacted attribute again, in case the compactor is its enricher.
+     */
+    private void compacted(String sessionId, NavigationStateCompactor compactor, Object attribute) {
+        if (navigationMemoryAccounting != null && compactor instanceof NavigationalStateEnricher) {
+            navigationMemoryAccounting.record(sessionId, (NavigationalStateEnricher<?>) compactor, attribute);
+        }
+    }
+
+    private Stripe stripeFor(String sessionId) {
+        int hash = sessionId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private final class Stripe {
+
+        private final Map<String, SessionState> sessions;
+
+        private Stripe(final int maxSessions) {
+            this.sessions = new LinkedHashMap<String, SessionState>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SessionState> eldest) {
+                    if (size() > maxSessions) {
+                        discarded(eldest.getKey());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+
+    private static final class SessionState {
+
+        private final Map<String, Object> attributes = new HashMap<>(4);
+        private long lastAccessTime;
+        private long compactedAccessTime = -1;
+
+        private boolean isExpired(long now, long maxIdleMillis) {
+            return now - lastAccessTime > maxIdleMillis;
+        }
+    }
+}
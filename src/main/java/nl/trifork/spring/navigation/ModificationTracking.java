@@ -0,0 +1,31 @@
+package nl.trifork.spring.navigation;
+
+/**
+ * Optionally implemented by a {@link NavigationalStateEnricher} whose attribute is modified in place and keeps a
+ * modification count, so that the {@link NavigationHandlerInterceptor} can skip saving attributes that did not change.
+ * Attributes of enrichers that do not implement this are always saved after an update.
+ *
+ * @see nl.trifork.spring.navigation.stack.NavigationStackEnricher
+ */
+public interface ModificationTracking {
+
+    /**
+     * Modification count signalling that modifications of an attribute are not tracked.
+     *
+     * @see #getModificationCount(Object)
+     */
+    long UNTRACKED = -1;
+
+    /**
+     * Get the number of times the attribute has been modified in place. The {@link NavigationHandlerInterceptor}
+     * compares this count before and after {@link NavigationalStateEnricher#updateOnBasePageVisit} and {@link
+     * NavigationalStateEnricher#updateOnStepPageVisit}, and does not save an attribute if the same instance was
+     * returned and the count did not change.
+     *
+     * @param attribute the attribute, may be {@code null}
+     * @return the modification count of the attribute, or {@link #UNTRACKED} in case modifications of the attribute
+     *         are not tracked, in which case the attribute is always saved after an update
+     */
+    long getModificationCount(Object attribute);
+
+}
@@ -1,60 +1,113 @@
 package nl.trifork.spring.navigation;
 
+import nl.trifork.spring.navigation.NavigationMetrics.EnricherCallback;
 import nl.trifork.spring.navigation.stack.NavigationStackEnricher;
+import org.springframework.beans.factory.BeanFactoryUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.method.HandlerMethod;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Activates the functionality of all registered {@link NavigationalStateEnricher}s, such as the {@link
  * NavigationStackEnricher} and user-defined enrichers.
  * <p/>
  * Only activates on {@link org.springframework.stereotype.Controller} {@link RequestMethod#GET} methods that are a
- * {@link NavigationPoint} or {@link nl.trifork.spring.navigation.annotations.NavigationPoint}.
+ * {@link NavigationPoint} or {@link nl.trifork.spring.navigation.annotations.NavigationPoint}. The navigation point
+ * types of all mapped handler methods are resolved once, when the application context is refreshed.
+ * <p/>
+ * The navigational state is loaded from the {@link NavigationStateRepository} at most once per request and changes are
+ * saved once, after the handler has completed. Attributes that an enricher reports as unmodified (see {@link
+ * ModificationTracking}) are not saved at all. Unless a repository bean is
+ * registered, the state is kept on the session by a {@link HttpSessionNavigationStateRepository}.
+ * <p/>
+ * Enricher callbacks, navigation point visits and state loads and saves are measured when a {@link NavigationMetrics}
+ * bean is registered; metrics that are an {@link EnricherCallbackTracer} time the callbacks themselves. Likewise, the
+ * estimated heap taken by the state of each session is accounted for when a {@link NavigationMemoryAccounting} bean is
+ * registered, once the changed state is saved and the session it is saved to, if any, exists.
+ * <p/>
+ * Asynchronously handled requests, e.g. of handlers returning a {@link java.util.concurrent.Callable} or {@link
+ * org.springframework.web.context.request.async.DeferredResult}, are updated once, when the async result is dispatched,
+ * as {@link #postHandle} is only called then. See {@link #afterConcurrentHandlingStarted}.
  *
  * @author Quinten Krijger
  */
 @Component
-public class NavigationHandlerInterceptor extends HandlerInterceptorAdapter {
+public class NavigationHandlerInterceptor extends HandlerInterceptorAdapter
+        implements ApplicationListener<ContextRefreshedEvent> {
 
     @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
     @Autowired
     private List<NavigationalStateEnricher<?>> enrichers;
 
+    @Autowired(required = false)
+    private NavigationStateRepository navigationStateRepository = new HttpSessionNavigationStateRepository();
+
+    @Autowired(required = false)
+    private NavigationMetrics navigationMetrics = NavigationMetrics.NONE;
+
+    @Autowired(required = false)
+    private NavigationMemoryAccounting navigationMemoryAccounting;
+
+    private final NavigationPointRegistry navigationPointRegistry = new NavigationPointRegistry();
+    private final Map<String, NavigationalStateEnricher<?>> enrichersByAttributeName = new HashMap<>();
+
+    /**
+     * Registers the navigation point types of the handler methods of all {@link RequestMappingHandlerMapping}s in the
+     * refreshed context, so that these need not be resolved during request handling. Likewise, registers the enrichers
+     * with the {@link NavigationMetrics}, and tells those that read their state outside of intercepted requests in
+     * which {@link NavigationStateRepository} it is kept.
+     *
+     * @param event the context refreshed event
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        for (RequestMappingHandlerMapping handlerMapping : BeanFactoryUtils.beansOfTypeIncludingAncestors(
+                event.getApplicationContext(), RequestMappingHandlerMapping.class).values()) {
+            navigationPointRegistry.register(handlerMapping.getHandlerMethods().values());
+        }
+        if (enrichers != null) {
+            for (NavigationalStateEnricher<?> enricher : enrichers) {
+                navigationMetrics.register(enricher);
+                enrichersByAttributeName.put(enricher.sessionAttributeName(), enricher);
+                if (enricher instanceof SimpleNavigationalStateEnricher) {
+                    ((SimpleNavigationalStateEnricher<?>) enricher).setNavigationStateRepository(
+                            navigationStateRepository);
+                }
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      * <p/>
-     * This implementation loops through all wired {@link NavigationalStateEnricher}s and initializes (see {@link
-     * NavigationalStateEnricher#init()}) and adds this to the model under the attribute name {@link
-     * NavigationalStateEnricher#sessionAttributeName()}.
-     * <p/>
-     * Only activates on {@link org.springframework.stereotype.Controller} {@link RequestMethod#GET} methods that are a
-     * {@link NavigationPoint} or {@link nl.trifork.spring.navigation.annotations.NavigationPoint}.
+     * This implementation makes the navigational state of {@link org.springframework.stereotype.Controller} methods
+     * available through the {@link NavigationStateRepository}, so that these may read and update it. Nothing is loaded
+     * yet, and no session is created. For {@link RequestMethod#GET} navigation points, the {@link QueryNormalization}
+     * of the navigation point is bound to the request, so that enricher methods called by the handler, such as {@link
+     * NavigationStackEnricher#stayingOnSamePage(HttpServletRequest)}, compare the same normalized uris as the update
+     * in {@link #postHandle}.
      */
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
-        if (requestIsMappedToAController(handler) && isGetRequest(request)) {
+        if (requestIsMappedToAController(handler)) {
+            NavigationalStateCache.of(request, response, navigationStateRepository,
+                    navigationMetrics);
             HandlerMethod handlerMethod = (HandlerMethod) handler;
-            HttpSession session = request.getSession();
-
-            if (isNavigationPoint(handlerMethod)) {
-                if (enrichers != null) {
-                    for (NavigationalStateEnricher<?> enricher : enrichers) {
-                        Object attribute = session.getAttribute(enricher.sessionAttributeName());
-                        if (attribute == null) {
-                            session.setAttribute(enricher.sessionAttributeName(), enricher.init());
-                        }
-                    }
-                }
+            if (isGetRequest(request) && navigationPointRegistry.getNavigationPointType(handlerMethod) != null) {
+                QueryNormalization.bind(request, navigationPointRegistry.getQueryNormalization(handlerMethod));
             }
         }
 
@@ -64,77 +117,192 @@ public class NavigationHandlerInterceptor extends HandlerInterceptorAdapter {
     /**
      * {@inheritDoc}
      * <p/>
-     * This implementation loops through all wired {@link NavigationalStateEnricher}s and calls the relevant {@link
+     * This implementation loops through all wired {@link NavigationalStateEnricher}s, initializes (see {@link
+     * NavigationalStateEnricher#init()}) the attributes that are not present yet, and calls the relevant {@link
      * NavigationalStateEnricher#updateOnBasePageVisit(Object, HttpServletRequest)} or {@link
      * NavigationalStateEnricher#updateOnStepPageVisit(Object, HttpServletRequest)} based on the intercepted requests
      * {@link NavigationPointType}. Moreover, it calls {@link NavigationalStateEnricher#postHandle(ModelMap, Object)},
-     * in which the model may be enriched.
+     * or {@link RequestAwareModelEnricher#postHandle(ModelMap, Object, HttpServletRequest)} for enrichers that
+     * implement it, in which the model may be enriched.
      * <p/>
      * Only activates on {@link org.springframework.stereotype.Controller} {@link RequestMethod#GET} methods that are a
-     * {@link NavigationPoint} or {@link nl.trifork.spring.navigation.annotations.NavigationPoint}.
+     * {@link NavigationPoint} or {@link nl.trifork.spring.navigation.annotations.NavigationPoint}. Enrichers that the
+     * navigation point does not select (see {@link SelectiveNavigationPoint} and {@link
+     * nl.trifork.spring.navigation.annotations.NavigationPoint#enrichers()}) are skipped. The enrichers apply the
+     * {@link QueryNormalization} that {@link #preHandle} bound to the request.
+     * <p/>
+     * Finally, the navigational state that was changed during the request is saved to the {@link
+     * NavigationStateRepository}, before the view is rendered and the response is committed, so that repositories may
+     * write the state to the response. Only then is the saved state accounted for, as saving it may create the
+     * session.
      */
     @Override
     public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
                            ModelAndView modelAndView) {
         if (requestIsMappedToAController(handler) && isGetRequest(request)) {
             HandlerMethod handlerMethod = (HandlerMethod) handler;
-            HttpSession session = request.getSession();
-
-            if (isNavigationPoint(handlerMethod)) {
-
-                switch (getNavigationPointType(handlerMethod)) {
-                    case BASE:
-                        if (enrichers != null) {
-                            for (NavigationalStateEnricher<?> enricher : enrichers) {
-                                Object attribute = session.getAttribute(enricher.sessionAttributeName());
-                                session.setAttribute(enricher.sessionAttributeName(),
-                                        enricher.updateOnBasePageVisit(attribute, request));
-                            }
-                        }
-                        break;
-                    case STEP:
-                        if (enrichers != null) {
-                            for (NavigationalStateEnricher<?> enricher : enrichers) {
-                                Object attribute = session.getAttribute(enricher.sessionAttributeName());
-                                session.setAttribute(enricher.sessionAttributeName(),
-                                        enricher.updateOnStepPageVisit(attribute, request));
-                            }
-                        }
-                        break;
+            NavigationalStateCache state = NavigationalStateCache.of(request, response, navigationStateRepository,
+                    navigationMetrics);
+            NavigationPointType navigationPointType = navigationPointRegistry.getNavigationPointType(handlerMethod);
+            NavigationalStateEnricher<?>[] chain = navigationPointRegistry.getEnrichers(handlerMethod, enrichers);
+            navigationMetrics.recordRequest(navigationPointType);
+
+            if (navigationPointType != null) {
+                for (NavigationalStateEnricher<?> enricher : chain) {
+                    Object attribute = state.getAttribute(enricher.sessionAttributeName());
+                    long modificationCount = ModificationTracking.UNTRACKED;
+                    if (attribute == null) {
+                        long start = startTiming();
+                        EnricherCallbackTracer.Trace trace = beginTrace(enricher, EnricherCallback.INIT);
+                        attribute = enricher.init();
+                        stopTiming(enricher, EnricherCallback.INIT, start, trace);
+                    } else {
+                        modificationCount = getModificationCount(enricher, attribute);
+                    }
+                    EnricherCallback callback = navigationPointType == NavigationPointType.BASE
+                            ? EnricherCallback.BASE_PAGE_VISIT : EnricherCallback.STEP_PAGE_VISIT;
+                    long start = startTiming();
+                    EnricherCallbackTracer.Trace trace = beginTrace(enricher, callback);
+                    Object updated = callback == EnricherCallback.BASE_PAGE_VISIT
+                            ? enricher.updateOnBasePageVisit(attribute, request)
+                            : enricher.updateOnStepPageVisit(attribute, request);
+                    stopTiming(enricher, callback, start, trace);
+                    storeIfModified(state, enricher, attribute, modificationCount, updated);
                 }
             }
-            if (enrichers != null) {
-                for (NavigationalStateEnricher<?> enricher : enrichers) {
-                    Object attribute = session.getAttribute(enricher.sessionAttributeName());
-                    if (modelAndView != null && attribute != null) {
-                        enricher.postHandle(modelAndView.getModelMap(), attribute);
+            if (modelAndView != null) {
+                for (NavigationalStateEnricher<?> enricher : chain) {
+                    Object attribute = state.getAttribute(enricher.sessionAttributeName());
+                    if (attribute != null) {
+                        long start = startTiming();
+                        EnricherCallbackTracer.Trace trace = beginTrace(enricher, EnricherCallback.POST_HANDLE);
+                        if (enricher instanceof RequestAwareModelEnricher) {
+                            ((RequestAwareModelEnricher) enricher).postHandle(modelAndView.getModelMap(), attribute,
+                                    request);
+                        } else {
+                            enricher.postHandle(modelAndView.getModelMap(), attribute);
+                        }
+                        stopTiming(enricher, EnricherCallback.POST_HANDLE, start, trace);
                     }
                 }
             }
+            flush(request, state);
+        } else {
+            flush(request);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation saves the navigational state that was changed after {@link #postHandle}, or during a request
+     * that failed before it, to the {@link NavigationStateRepository}.
+     */
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        flush(request);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation saves the navigational state that was changed by the handler before it started async
+     * processing, and releases the state cached for the request, so that the container thread holds nothing. The async
+     * dispatch of the result loads the state afresh, as it may have been changed by other requests of the same user in
+     * the mean time, and applies the navigation point update once.
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        NavigationalStateCache state = NavigationalStateCache.find(request);
+        if (state != null) {
+            flush(request, state);
+            state.detach();
+        }
+    }
+
+    /**
+     * Saves the changed navigational state of the given request, in a single save per changed attribute.
+     */
+    private void flush(HttpServletRequest request) {
+        NavigationalStateCache state = NavigationalStateCache.find(request);
+        if (state != null) {
+            flush(request, state);
+        }
+    }
+
+    /**
+     * Saves the changed navigational state of the given request, and only then accounts for the saved attributes, as
+     * saving may create the session. This includes attributes changed through {@link
+     * NavigationalStateEnricher#update(SessionAttributeUpdater, javax.servlet.http.HttpSession)}.
+     */
+    private void flush(HttpServletRequest request, NavigationalStateCache state) {
+        List<String> saved = state.flush();
+        if (navigationMemoryAccounting != null) {
+            for (String attributeName : saved) {
+                NavigationalStateEnricher<?> enricher = enrichersByAttributeName.get(attributeName);
+                if (enricher != null) {
+                    navigationMemoryAccounting.record(request, enricher, state.getAttribute(attributeName));
+                }
+            }
         }
     }
 
-    private boolean isNavigationPoint(HandlerMethod handlerMethod) {
-        return handlerMethod.getBean() instanceof NavigationPoint
-                || handlerMethod.getMethod()
-                    .isAnnotationPresent(nl.trifork.spring.navigation.annotations.NavigationPoint.class)
-                || handlerMethod.getBeanType()
-                    .isAnnotationPresent(nl.trifork.spring.navigation.annotations.NavigationPoint.class);
+    /**
+     * Stores the updated attribute in the request state, unless the enricher returned the same attribute and reports
+     * that it was not modified, in which case saving it would be pointless. Newly initialized attributes are passed
+     * with an {@link ModificationTracking#UNTRACKED} modification count, so that these are always stored.
+     */
+    private void storeIfModified(NavigationalStateCache state, NavigationalStateEnricher<?> enricher,
+                                 Object attribute, long modificationCount, Object updated) {
+        if (updated != attribute
+                || modificationCount == ModificationTracking.UNTRACKED
+                || getModificationCount(enricher, updated) != modificationCount) {
+            state.setAttribute(enricher.sessionAttributeName(), updated);
+        }
+    }
+
+    /**
+     * @return the modification count of the attribute, or {@link ModificationTracking#UNTRACKED} in case the enricher
+     *         does not track modifications
+     */
+    private long getModificationCount(NavigationalStateEnricher<?> enricher, Object attribute) {
+        return enricher instanceof ModificationTracking
+                ? ((ModificationTracking) enricher).getModificationCount(attribute) : ModificationTracking.UNTRACKED;
+    }
+
+    /**
+     * @return the current time in nanoseconds, or {@code 0} in case no metrics are recorded, or the metrics only trace
+     *         the callbacks themselves
+     */
+    private long startTiming() {
+        return isTimed() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @return the begun trace, or {@code null} in case the metrics do not trace callbacks at the moment
+     */
+    private EnricherCallbackTracer.Trace beginTrace(NavigationalStateEnricher<?> enricher, EnricherCallback callback) {
+        return navigationMetrics instanceof EnricherCallbackTracer
+                ? ((EnricherCallbackTracer) navigationMetrics).begin(enricher, callback) : null;
+    }
+
+    private void stopTiming(NavigationalStateEnricher<?> enricher, EnricherCallback callback, long start,
+                            EnricherCallbackTracer.Trace trace) {
+        if (trace != null) {
+            trace.finish();
+        }
+        if (isTimed()) {
+            navigationMetrics.recordEnricherCallback(enricher, callback, System.nanoTime() - start);
+        }
     }
 
-    private NavigationPointType getNavigationPointType(HandlerMethod handlerMethod) {
-        if (handlerMethod.getBean() instanceof NavigationPoint) {
-            return ((NavigationPoint) handlerMethod.getBean()).getNavigationPointType();
-        } else if (handlerMethod.getMethod()
-                    .isAnnotationPresent(nl.trifork.spring.navigation.annotations.NavigationPoint.class)) {
-            return handlerMethod.getMethod()
-                    .getAnnotation(nl.trifork.spring.navigation.annotations.NavigationPoint.class).value();
-        } else if (handlerMethod.getBeanType()
-                    .isAnnotationPresent(nl.trifork.spring.navigation.annotations.NavigationPoint.class)) {
-            return handlerMethod.getBeanType()
-                    .getAnnotation(nl.trifork.spring.navigation.annotations.NavigationPoint.class).value();
+    private boolean isTimed() {
+        if (navigationMetrics instanceof EnricherCallbackTracer) {
+            return ((EnricherCallbackTracer) navigationMetrics).isTimingRequired();
         }
-        throw new IllegalArgumentException("HandlerMethod not of type NavigationPoint");
+        return navigationMetrics != NavigationMetrics.NONE;
     }
 
     private boolean isGetRequest(HttpServletRequest request) {
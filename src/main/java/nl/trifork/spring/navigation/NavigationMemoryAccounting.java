@@ -0,0 +1,276 @@
+package nl.trifork.spring.navigation;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps account of the estimated heap taken by the navigational state of each session, and exposes it over JMX: as a
+ * total, as a histogram of the number of navigation stacks by depth, and as the heaviest sessions. This allows to set
+ * e.g. the maximum depth of the {@link nl.trifork.spring.navigation.stack.NavigationStackEnricher} from data.
+ * <p/>
+ * The accounts are updated incrementally by the {@link NavigationHandlerInterceptor}, each time it has saved a changed
+ * attribute, from the estimate of its {@link NavigationStateSizeEstimator} or else the size of its encoding. This
+ * includes attributes that controllers changed through {@link NavigationalStateEnricher#update(SessionAttributeUpdater,
+ * HttpSession)} while handling an intercepted request; changes made outside of intercepted requests are not accounted
+ * for until the attribute is saved again. Only state kept on the server is accounted for, so requests that still have
+ * no session once the state is saved are skipped.
+ * Estimates of attributes that share parts with those of other sessions, like navigation stacks do, count the shared
+ * parts for each session.
+ * <p/>
+ * Repositories that discard or compact state on their own should update the accounts as well; the {@link
+ * InMemoryNavigationStateRepository} does so when it is given the accounting.
+ * <p/>
+ * Register a bean of this type to enable the accounting, and export it with an {@link
+ * org.springframework.jmx.export.annotation.AnnotationMBeanExporter}. The accounting is an {@link HttpSessionListener}
+ * that removes the accounts of destroyed sessions; register it with the servlet container as well.
+ */
+@ManagedResource(objectName = "nl.trifork.spring.navigation:type=NavigationMemoryAccounting",
+        description = "Estimated heap taken by navigational state")
+public class NavigationMemoryAccounting implements HttpSessionListener {
+
+    /**
+     * The number of depths in the depth histogram. Stacks of this depth or deeper are counted in the last one.
+     */
+    public static final int DEPTH_HISTOGRAM_SIZE = 64;
+
+    private final ConcurrentMap<String, SessionAccount> accounts = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLongArray depthHistogram = new AtomicLongArray(DEPTH_HISTOGRAM_SIZE);
+
+    /**
+     * Accounts for the given attribute of the session of the given request, replacing its previous estimate.
+     *
+     * @param request the current request
+     * @param enricher the enricher of the attribute
+     * @param attribute the attribute value, may be {@code null}
+     */
+    public void record(HttpServletRequest request, NavigationalStateEnricher<?> enricher, Object attribute) {
+        HttpSession session = request.getSession(false);
+        if (session != null) {
+            record(session.getId(), enricher, attribute);
+        }
+    }
+
+    /**
+     * Accounts for the given attribute of the session with the given id, replacing its previous estimate.
+     *
+     * @param sessionId the id of the session
+     * @param enricher the enricher of the attribute
+     * @param attribute the attribute value, may be {@code null}
+     */
+    public void record(String sessionId, NavigationalStateEnricher<?> enricher, Object attribute) {
+        long bytes = 0;
+        int depth = 0;
+        if (attribute != null) {
+            if (enricher instanceof NavigationStateSizeEstimator) {
+                bytes = ((NavigationStateSizeEstimator) enricher).estimateSize(attribute);
+                depth = ((NavigationStateSizeEstimator) enricher).getDepth(attribute);
+            } else if (enricher instanceof NavigationalStateCodecProvider) {
+                bytes = encodedSize(enricher, attribute);
+            }
+        }
+        record(sessionId, enricher.sessionAttributeName(), bytes, depth);
+    }
+
+    /**
+     * Accounts for the given attribute of the given session, replacing its previous estimate.
+     *
+     * @param sessionId the id of the session
+     * @param attributeName the name of the attribute
+     * @param bytes the estimated retained size of the attribute in bytes
+     * @param depth the depth of the attribute, or {@code 0} in case it is not a stack
+     */
+    public void record(String sessionId, String attributeName, long bytes, int depth) {
+        while (true) {
+            SessionAccount account = accounts.get(sessionId);
+            if (account == null) {
+                account = new SessionAccount(sessionId);
+                SessionAccount existing = accounts.putIfAbsent(sessionId, account);
+                if (existing != null) {
+                    account = existing;
+                }
+            }
+            synchronized (account) {
+                if (account.removed) {
+                    // removed concurrently, after it was looked up; record in the account that replaces it
+                    continue;
+                }
+                Estimate previous = account.attributes.put(attributeName, new Estimate(bytes, depth));
+                if (previous != null) {
+                    subtract(previous);
+                }
+                account.bytes += bytes - (previous == null ? 0 : previous.bytes);
+                add(bytes, depth);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the account of the session with the given id.
+     *
+     * @param sessionId the id of the session
+     */
+    public void remove(String sessionId) {
+        SessionAccount account = accounts.remove(sessionId);
+        if (account != null) {
+            synchronized (account) {
+                account.removed = true;
+                for (Estimate estimate : account.attributes.values()) {
+                    subtract(estimate);
+                }
+                account.attributes.clear();
+                account.bytes = 0;
+            }
+        }
+    }
+
+    @Override
+    public void sessionCreated(HttpSessionEvent se) {
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent se) {
+        remove(se.getSession().getId());
+    }
+
+    /**
+     * Get the estimated heap taken by the navigational state of all sessions.
+     *
+     * @return the estimated total size in bytes
+     */
+    @ManagedAttribute(description = "Estimated heap taken by the navigational state of all sessions, in bytes")
+    public long getTotalEstimatedBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * Get the number of sessions that are accounted for.
+     *
+     * @return the number of sessions
+     */
+    @ManagedAttribute(description = "Number of sessions with navigational state")
+    public int getSessionCount() {
+        return accounts.size();
+    }
+
+    /**
+     * Get the number of navigation stacks by depth. The last element counts the stacks of that depth or deeper.
+     *
+     * @return the number of stacks, indexed by depth
+     */
+    @ManagedAttribute(description = "Number of navigation stacks, indexed by depth")
+    public long[] getDepthHistogram() {
+        long[] histogram = new long[DEPTH_HISTOGRAM_SIZE];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = depthHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Get the sessions of which the navigational state takes the most heap, from the heaviest down.
+     *
+     * @param count the maximum number of sessions to return
+     * @return the heaviest sessions, each as its id and estimated size in bytes separated by {@code "="}
+     */
+    @ManagedOperation(description = "Sessions of which the navigational state takes the most heap")
+    @ManagedOperationParameter(name = "count", description = "Maximum number of sessions")
+    public String[] getHeaviestSessions(int count) {
+        if (count <= 0) {
+            return new String[0];
+        }
+        Comparator<long[]> byBytes = new Comparator<long[]>() {
+            @Override
+            public int compare(long[] first, long[] second) {
+                return Long.compare(first[0], second[0]);
+            }
+        };
+        PriorityQueue<long[]> heaviest = new PriorityQueue<>(count, byBytes);
+        List<String> sessionIds = new ArrayList<>();
+        for (SessionAccount account : accounts.values()) {
+            long bytes;
+            synchronized (account) {
+                bytes = account.bytes;
+            }
+            if (heaviest.size() < count || bytes > heaviest.peek()[0]) {
+                sessionIds.add(account.sessionId);
+                heaviest.add(new long[] {bytes, sessionIds.size() - 1});
+                if (heaviest.size() > count) {
+                    heaviest.poll();
+                }
+            }
+        }
+        List<long[]> sorted = new ArrayList<>(heaviest);
+        Collections.sort(sorted, Collections.reverseOrder(byBytes));
+        String[] result = new String[sorted.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sessionIds.get((int) sorted.get(i)[1]) + "=" + sorted.get(i)[0];
+        }
+        return result;
+    }
+
+    private void add(long bytes, int depth) {
+        totalBytes.addAndGet(bytes);
+        if (depth > 0) {
+            depthHistogram.incrementAndGet(Math.min(depth, DEPTH_HISTOGRAM_SIZE - 1));
+        }
+    }
+
+    private void subtract(Estimate estimate) {
+        totalBytes.addAndGet(-estimate.bytes);
+        if (estimate.depth > 0) {
+            depthHistogram.decrementAndGet(Math.min(estimate.depth, DEPTH_HISTOGRAM_SIZE - 1));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long encodedSize(NavigationalStateEnricher<?> enricher, Object attribute) {
+        try {
+            return ((NavigationalStateCodecProvider<Object>) enricher).getCodec().encode(attribute).length;
+        } catch (ClassCastException e) {
+            return 0;
+        }
+    }
+
+    private static final class SessionAccount {
+
+        private final String sessionId;
+        private final Map<String, Estimate> attributes = new HashMap<>(4);
+        private long bytes;
+        private boolean removed;
+
+        private SessionAccount(String sessionId) {
+            this.sessionId = sessionId;
+        }
+    }
+
+    private static final class Estimate {
+
+        private final long bytes;
+        private final int depth;
+
+        private Estimate(long bytes, int depth) {
+            this.bytes = bytes;
+            this.depth = depth;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package nl.trifork.spring.navigation;
+
+/**
+ * Receives measurements of navigation handling, such as the time spent in each {@link NavigationalStateEnricher}
+ * callback and the number of navigation point visits. By default nothing is measured, see {@link #NONE}; registering
+ * a bean of this type, e.g. the {@code MicrometerNavigationMetrics} of the spring-navigation-micrometer module or the
+ * {@code JfrNavigationMetrics} of the spring-navigation-jfr module, enables the measurements. Use a {@link
+ * CompositeNavigationMetrics} to register several.
+ * <p/>
+ * Implementations are called on every request and should neither block nor allocate.
+ */
+public interface NavigationMetrics {
+
+    /**
+     * Metrics that discard all measurements. Callers may skip taking measurements when this instance is configured.
+     */
+    NavigationMetrics NONE = new NavigationMetrics() {
+
+        @Override
+        public void register(NavigationalStateEnricher<?> enricher) {
+        }
+
+        @Override
+        public void recordEnricherCallback(NavigationalStateEnricher<?> enricher, EnricherCallback callback,
+                                           long nanos) {
+        }
+
+        @Override
+        public void recordRequest(NavigationPointType navigationPointType) {
+        }
+
+        @Override
+        public void recordTransition(Transition transition, int depth, int uriId) {
+        }
+
+        @Override
+        public void recordStateLoad() {
+        }
+
+        @Override
+        public void recordStateSave(String attributeName, int size) {
+        }
+    };
+
+    /**
+     * The {@link NavigationalStateEnricher} callbacks that are timed.
+     */
+    enum EnricherCallback {
+        INIT, BASE_PAGE_VISIT, STEP_PAGE_VISIT, POST_HANDLE
+    }
+
+    /**
+     * The ways in which a navigation point visit changes the navigation stack.
+     */
+    enum Transition {
+        /**
+         * A base page visit, which replaces the stack by the base page.
+         */
+        REBASE,
+        /**
+         * A step page visit that adds the step page to the stack.
+         */
+        FORWARD,
+        /**
+         * A step page visit to the previous navigation point, which removes the last one from the stack.
+         */
+        BACK,
+        /**
+         * A step page visit to the last navigation point, which leaves the stack as it is.
+         */
+        REFRESH
+    }
+
+    /**
+     * Registers the given enricher up front, so that recording its callbacks does not need to register anything.
+     *
+     * @param enricher the enricher
+     */
+    void register(NavigationalStateEnricher<?> enricher);
+
+    /**
+     * Records the time spent in a callback of the given enricher.
+     *
+     * @param enricher the enricher
+     * @param callback the callback
+     * @param nanos the time spent, in nanoseconds
+     */
+    void recordEnricherCallback(NavigationalStateEnricher<?> enricher, EnricherCallback callback, long nanos);
+
+    /**
+     * Records a request handled by the {@link NavigationHandlerInterceptor}.
+     *
+     * @param navigationPointType the type of navigation point, or {@code null} for requests that are no navigation
+     *                            point
+     */
+    void recordRequest(NavigationPointType navigationPointType);
+
+    /**
+     * Records a navigation point visit that updated a navigation stack.
+     *
+     * @param transition the way in which the navigation stack changed
+     * @param depth the number of uris in the navigation stack after the update, including the base uri
+     * @param uriId the JVM-local id of the visited uri in the uri dictionary, which is never negative
+     */
+    void recordTransition(Transition transition, int depth, int uriId);
+
+    /**
+     * Records that an attribute was loaded from the {@link NavigationStateRepository}.
+     */
+    void recordStateLoad();
+
+    /**
+     * Records that an attribute was saved to the {@link NavigationStateRepository}.
+     *
+     * @param attributeName the name of the attribute
+     * @param size the size of the saved attribute in bytes, or {@code -1} in case it is not known
+     */
+    void recordStateSave(String attributeName, int size);
+
+}
@@ -0,0 +1,163 @@
+package nl.trifork.spring.navigation;
+
+import org.springframework.web.method.HandlerMethod;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dispatch table that maps {@link HandlerMethod}s to the {@link NavigationPointType} they represent, the chain of
+ * {@link NavigationalStateEnricher}s that apply to them and their compiled {@link QueryNormalization}, so that the
+ * {@link NavigationHandlerInterceptor} does not have to inspect annotations on every request, and enrichers that do
+ * not apply cost nothing.
+ * <p/>
+ * The table is filled up front by {@link #register(Collection)}, typically with the handler methods of all
+ * {@link org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping}s on context refresh.
+ * Handler methods that were not known at that time, e.g. because their mapping was registered at runtime, are resolved
+ * on their first request and added to the table. The enricher chain of a handler method is selected on its first
+ * request, as controllers implementing {@link SelectiveNavigationPoint} can only be inspected once their bean is
+ * resolved.
+ */
+class NavigationPointRegistry {
+
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, Resolution>> resolutions = new ConcurrentHashMap<>();
+
+    /**
+     * Resolves and stores the navigation point type of all given handler methods.
+     *
+     * @param handlerMethods the handler methods to register
+     */
+    public void register(Collection<HandlerMethod> handlerMethods) {
+        for (HandlerMethod handlerMethod : handlerMethods) {
+            methodsOf(handlerMethod.getBeanType()).put(handlerMethod.getMethod(), resolve(handlerMethod));
+        }
+    }
+
+    /**
+     * Get the type of navigation point the given handler method represents.
+     *
+     * @param handlerMethod the handler method of the current request
+     * @return the navigation point type, or {@code null} if the handler method is not a navigation point
+     */
+    public NavigationPointType getNavigationPointType(HandlerMethod handlerMethod) {
+        Object bean = handlerMethod.getBean();
+        if (bean instanceof NavigationPoint) {
+            return ((NavigationPoint) bean).getNavigationPointType();
+        }
+        return resolutionOf(handlerMethod).type;
+    }
+
+    /**
+     * Get the enrichers that apply to the given handler method, in the order of the given enrichers. Handler methods
+     * that do not select any enrichers, including those that are no navigation point, get all enrichers.
+     *
+     * @param handlerMethod the handler method of the current request
+     * @param enrichers all enrichers, which should be the same on every call
+     * @return the enrichers that apply, not to be modified
+     */
+    public NavigationalStateEnricher<?>[] getEnrichers(HandlerMethod handlerMethod,
+                                                       List<? extends NavigationalStateEnricher<?>> enrichers) {
+        Resolution resolution = resolutionOf(handlerMethod);
+        NavigationalStateEnricher<?>[] chain = resolution.enrichers;
+        if (chain == null) {
+            Object bean = handlerMethod.getBean();
+            chain = select(enrichers, bean instanceof SelectiveNavigationPoint
+                    ? ((SelectiveNavigationPoint) bean).getEnrichers()
+                    : resolution.enricherTypes);
+            resolution.enrichers = chain;
+        }
+        return chain;
+    }
+
+    /**
+     * Get the query normalization rules of the given handler method.
+     *
+     * @param handlerMethod the handler method of the current request
+     * @return the query normalization, or {@code null} in case the handler method does not declare any
+     */
+    public QueryNormalization getQueryNormalization(HandlerMethod handlerMethod) {
+        return resolutionOf(handlerMethod).queryNormalization;
+    }
+
+    private Resolution resolutionOf(HandlerMethod handlerMethod) {
+        ConcurrentMap<Method, Resolution> methods = methodsOf(handlerMethod.getBeanType());
+        Resolution resolution = methods.get(handlerMethod.getMethod());
+        if (resolution == null) {
+            resolution = resolve(handlerMethod);
+            Resolution existing = methods.putIfAbsent(handlerMethod.getMethod(), resolution);
+            if (existing != null) {
+                resolution = existing;
+            }
+        }
+        return resolution;
+    }
+
+    private ConcurrentMap<Method, Resolution> methodsOf(Class<?> beanType) {
+        ConcurrentMap<Method, Resolution> methods = resolutions.get(beanType);
+        if (methods == null) {
+            methods = new ConcurrentHashMap<>();
+            ConcurrentMap<Method, Resolution> existing = resolutions.putIfAbsent(beanType, methods);
+            if (existing != null) {
+                methods = existing;
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * Resolves the navigation point type by reflection. Beans implementing {@link NavigationPoint} are not resolved
+     * here, as their type is determined by the bean instance itself.
+     */
+    private Resolution resolve(HandlerMethod handlerMethod) {
+        nl.trifork.spring.navigation.annotations.NavigationPoint annotation = handlerMethod.getMethod()
+                .getAnnotation(nl.trifork.spring.navigation.annotations.NavigationPoint.class);
+        if (annotation == null) {
+            annotation = handlerMethod.getBeanType()
+                    .getAnnotation(nl.trifork.spring.navigation.annotations.NavigationPoint.class);
+        }
+        return annotation == null ? new Resolution(null, null, null) : new Resolution(annotation.value(),
+                annotation.enrichers(), QueryNormalization.of(annotation));
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static NavigationalStateEnricher<?>[] select(List<? extends NavigationalStateEnricher<?>> enrichers,
+                                                         Class<? extends NavigationalStateEnricher>[] types) {
+        if (enrichers == null) {
+            return new NavigationalStateEnricher<?>[0];
+        }
+        if (types == null || types.length == 0) {
+            return enrichers.toArray(new NavigationalStateEnricher<?>[enrichers.size()]);
+        }
+        List<NavigationalStateEnricher<?>> selected = new ArrayList<>(types.length);
+        for (NavigationalStateEnricher<?> enricher : enrichers) {
+            for (Class<? extends NavigationalStateEnricher> type : types) {
+                if (type.isInstance(enricher)) {
+                    selected.add(enricher);
+                    break;
+                }
+            }
+        }
+        return selected.toArray(new NavigationalStateEnricher<?>[selected.size()]);
+    }
+
+    private static final class Resolution {
+
+        private final NavigationPointType type;
+        @SuppressWarnings("rawtypes")
+        private final Class<? extends NavigationalStateEnricher>[] enricherTypes;
+        private final QueryNormalization queryNormalization;
+        private volatile NavigationalStateEnricher<?>[] enrichers;
+
+        @SuppressWarnings("rawtypes")
+        private Resolution(NavigationPointType type, Class<? extends NavigationalStateEnricher>[] enricherTypes,
+                           QueryNormalization queryNormalization) {
+            this.type = type;
+            this.enricherTypes = enricherTypes;
+            this.queryNormalization = queryNormalization;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package nl.trifork.spring.navigation;
+
+/**
+ * Compacts the state of a {@link NavigationalStateEnricher} of a session that has been idle for a while, keeping only
+ * what is needed when the user returns. Used by the {@link NavigationStateSweeper}.
+ *
+ * @see nl.trifork.spring.navigation.stack.NavigationStackEnricher
+ */
+public interface NavigationStateCompactor {
+
+    /**
+     * Compacts the given attribute in place. Attributes that are not known to this compactor are left untouched.
+     *
+     * @param attributeName the name of the attribute, see {@link NavigationalStateEnricher#sessionAttributeName()}
+     * @param attribute the attribute value, not {@code null}
+     * @return the estimated number of bytes reclaimed, or {@code 0} in case the attribute was not compacted
+     */
+    long compact(String attributeName, Object attribute);
+
+}
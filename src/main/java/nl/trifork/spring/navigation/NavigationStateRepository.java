@@ -0,0 +1,38 @@
+package nl.trifork.spring.navigation;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Stores the state of the {@link NavigationalStateEnricher}s between requests. The {@link NavigationHandlerInterceptor}
+ * loads each attribute at most once per request and saves the changed ones once the handler has completed.
+ * <p/>
+ * By default the state is kept on the {@link javax.servlet.http.HttpSession}, see
+ * {@link HttpSessionNavigationStateRepository}. Registering a bean of this type replaces that default.
+ *
+ * @see HttpSessionNavigationStateRepository
+ * @see InMemoryNavigationStateRepository
+ */
+public interface NavigationStateRepository {
+
+    /**
+     * Loads the attribute with the given name for the user of the given request.
+     *
+     * @param request the current request
+     * @param attributeName the name of the attribute, see {@link NavigationalStateEnricher#sessionAttributeName()}
+     * @return the attribute value, or {@code null} in case there is none
+     */
+    Object load(HttpServletRequest request, String attributeName);
+
+    /**
+     * Saves the attribute with the given name for the user of the given request.
+     *
+     * @param request the current request
+     * @param response the current response
+     * @param attributeName the name of the attribute, see {@link NavigationalStateEnricher#sessionAttributeName()}
+     * @param value the attribute value
+     * @return the size of the saved attribute in bytes, or {@code -1} in case it is not known
+     */
+    int save(HttpServletRequest request, HttpServletResponse response, String attributeName, Object value);
+
+}
@@ -0,0 +1,28 @@
+package nl.trifork.spring.navigation;
+
+/**
+ * Estimates the heap taken by the state of a {@link NavigationalStateEnricher}, for the {@link
+ * NavigationMemoryAccounting}. Enrichers that do not implement this are estimated by the size of their encoded state,
+ * if they are a {@link NavigationalStateCodecProvider}.
+ *
+ * @see nl.trifork.spring.navigation.stack.NavigationStackEnricher
+ */
+public interface NavigationStateSizeEstimator {
+
+    /**
+     * Estimates the number of bytes the given attribute retains.
+     *
+     * @param attribute the attribute value, not {@code null}
+     * @return the estimated retained size in bytes
+     */
+    long estimateSize(Object attribute);
+
+    /**
+     * Get the number of navigation points in the given attribute, in case it is a stack of these.
+     *
+     * @param attribute the attribute value, not {@code null}
+     * @return the depth of the attribute, or {@code 0} in case it is not a stack
+     */
+    int getDepth(Object attribute);
+
+}
@@ -0,0 +1,164 @@
+package nl.trifork.spring.navigation;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compacts the navigational state of sessions that have been idle for a while in the background, so that it does not
+ * take up its full size until the session expires. What is kept is up to the {@link NavigationStateCompactor}, e.g. the
+ * {@link nl.trifork.spring.navigation.stack.NavigationStackEnricher} keeps only the base and last uri of idle stacks.
+ * <p/>
+ * The sweeper runs periodically on a daemon thread of minimum priority. Each run sweeps the segments of the {@link
+ * SweepableNavigationStateRepository} one by one, until all have been swept or its time budget is spent, in which
+ * case the next run continues where it stopped. A single segment is always swept, so that sweeping progresses even
+ * with a small budget. This keeps the time that requests may wait for a segment short.
+ * <p/>
+ * Declare the sweeper as a bean to start it with the application context, or call {@link #start()} and {@link
+ * #stop()}.
+ */
+public class NavigationStateSweeper implements InitializingBean, DisposableBean {
+
+    /**
+     * The default interval between runs, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 60000;
+
+    /**
+     * The default time budget of a run, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_RUN_MILLIS = 10;
+
+    private final SweepableNavigationStateRepository repository;
+    private final NavigationStateCompactor compactor;
+    private final long minIdleMillis;
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private long maxRunMillis = DEFAULT_MAX_RUN_MILLIS;
+    private int nextSegment;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a new {@link NavigationStateSweeper}.
+     *
+     * @param repository the repository of which the state is compacted
+     * @param compactor the compactor of the attributes
+     * @param minIdleTime the time after which the state of an inactive session is compacted
+     * @param unit the unit of {@code minIdleTime}
+     * @throws IllegalArgumentException in case {@code minIdleTime} is negative
+     */
+    public NavigationStateSweeper(SweepableNavigationStateRepository repository, NavigationStateCompactor compactor,
+                                  long minIdleTime, TimeUnit unit) {
+        if (minIdleTime < 0) {
+            throw new IllegalArgumentException("Min idle time should not be negative, but was: " + minIdleTime);
+        }
+        this.repository = repository;
+        this.compactor = compactor;
+        this.minIdleMillis = unit.toMillis(minIdleTime);
+    }
+
+    /**
+     * Sets the interval between runs. Defaults to {@value #DEFAULT_INTERVAL_MILLIS} milliseconds. Takes effect on the
+     * next {@link #start()}.
+     *
+     * @param intervalMillis the interval in milliseconds
+     * @throws IllegalArgumentException in case {@code intervalMillis} is not positive
+     */
+    public void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Interval should be positive, but was: " + intervalMillis);
+        }
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Sets the time budget of a run. Defaults to {@value #DEFAULT_MAX_RUN_MILLIS} milliseconds.
+     *
+     * @param maxRunMillis the time budget in milliseconds
+     * @throws IllegalArgumentException in case {@code maxRunMillis} is not positive
+     */
+    public void setMaxRunMillis(long maxRunMillis) {
+        if (maxRunMillis <= 0) {
+            throw new IllegalArgumentException("Max run time should be positive, but was: " + maxRunMillis);
+        }
+        this.maxRunMillis = maxRunMillis;
+    }
+
+    /**
+     * Starts sweeping periodically. Does nothing in case the sweeper is already started.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "navigation-state-sweeper");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sweep();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sweeping.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        start();
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    /**
+     * Sweeps segments of the repository, starting where the previous run stopped, until all have been swept or the
+     * time budget is spent.
+     *
+     * @return the estimated number of bytes reclaimed by this run
+     */
+    public synchronized long sweep() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxRunMillis);
+        int segmentCount = repository.getSegmentCount();
+        long reclaimed = 0;
+        for (int swept = 0; swept < segmentCount && (swept == 0 || System.nanoTime() < deadline); swept++) {
+            if (nextSegment >= segmentCount) {
+                nextSegment = 0;
+            }
+            reclaimed += repository.compactIdle(nextSegment++, minIdleMillis, compactor);
+        }
+        reclaimedBytes.addAndGet(reclaimed);
+        return reclaimed;
+    }
+
+    /**
+     * Get the estimated number of bytes reclaimed by all runs so far.
+     *
+     * @return the estimated number of bytes reclaimed
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+}
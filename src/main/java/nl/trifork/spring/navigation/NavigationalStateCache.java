@@ -0,0 +1,156 @@
+package nl.trifork.spring.navigation;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request scoped copy of the navigational state in the {@link NavigationStateRepository}. Each attribute is loaded
+ * from the repository at most once per request, all {@link NavigationalStateEnricher} callbacks work on the cached
+ * value, and changed attributes are saved to the repository in a single {@link #flush()} at the end of the request.
+ */
+class NavigationalStateCache {
+
+    private static final String REQUEST_ATTRIBUTE = NavigationalStateCache.class.getName();
+
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private final NavigationStateRepository repository;
+    private final NavigationMetrics metrics;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private NavigationalStateCache(HttpServletRequest request, HttpServletResponse response,
+                                   NavigationStateRepository repository, NavigationMetrics metrics) {
+        this.request = request;
+        this.response = response;
+        this.repository = repository;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the cache of the given request, creating it if it does not exist yet.
+     *
+     * @param request the current request
+     * @param response the current response
+     * @param repository the repository the state is loaded from and saved to
+     * @param metrics the metrics in which loads and saves are recorded
+     * @return the cache of the given request
+     */
+    public static NavigationalStateCache of(HttpServletRequest request, HttpServletResponse response,
+                                            NavigationStateRepository repository, NavigationMetrics metrics) {
+        NavigationalStateCache cache = (NavigationalStateCache) request.getAttribute(REQUEST_ATTRIBUTE);
+        if (cache == null) {
+            cache = new NavigationalStateCache(request, response, repository, metrics);
+            request.setAttribute(REQUEST_ATTRIBUTE, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Get the cache of the given request, if any.
+     *
+     * @param request the current request
+     * @return the cache of the given request, or {@code null} if the request is not handled by the
+     * {@link NavigationHandlerInterceptor}
+     */
+    public static NavigationalStateCache find(HttpServletRequest request) {
+        return (NavigationalStateCache) request.getAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * Get the cache of the request bound to the current thread, if any.
+     *
+     * @return the cache of the current request, or {@code null} if there is no current request or it is not handled by
+     * the {@link NavigationHandlerInterceptor}
+     */
+    public static NavigationalStateCache findCurrent() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes == null) {
+            return null;
+        }
+        return (NavigationalStateCache) requestAttributes.getAttribute(REQUEST_ATTRIBUTE,
+                RequestAttributes.SCOPE_REQUEST);
+    }
+
+    /**
+     * Get the attribute with the given name, loading it from the repository on first access.
+     *
+     * @param name the session attribute name
+     * @return the attribute value, or {@code null} if not present
+     */
+    public Object getAttribute(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry(repository.load(request, name));
+            metrics.recordStateLoad();
+            entries.put(name, entry);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Sets the attribute with the given name, to be saved to the repository on {@link #flush()}.
+     *
+     * @param name the session attribute name
+     * @param value the new attribute value
+     */
+    public void setAttribute(String name, Object value) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry(value);
+            entries.put(name, entry);
+        } else {
+            entry.value = value;
+        }
+        entry.changed = true;
+    }
+
+    /**
+     * Saves all changed attributes to the repository. Nothing is saved if nothing changed.
+     *
+     * @return the names of the saved attributes
+     */
+    public List<String> flush() {
+        List<String> saved = Collections.emptyList();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry cached = entry.getValue();
+            if (cached.changed) {
+                int size = repository.save(request, response, entry.getKey(), cached.value);
+                metrics.recordStateSave(entry.getKey(), size);
+                cached.changed = false;
+                if (saved.isEmpty()) {
+                    saved = new ArrayList<>(entries.size());
+                }
+                saved.add(entry.getKey());
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Removes this cache from its request, so that it is not used any further. A next dispatch of the same request will
+     * create a new cache, which loads the state afresh.
+     */
+    public void detach() {
+        if (request.getAttribute(REQUEST_ATTRIBUTE) == this) {
+            request.removeAttribute(REQUEST_ATTRIBUTE);
+        }
+    }
+
+    private static final class Entry {
+
+        private Object value;
+        private boolean changed;
+
+        private Entry(Object value) {
+            this.value = value;
+        }
+    }
+}
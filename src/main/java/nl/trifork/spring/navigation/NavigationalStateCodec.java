@@ -0,0 +1,28 @@
+package nl.trifork.spring.navigation;
+
+/**
+ * Encodes the state of a {@link NavigationalStateEnricher} to a compact byte array and back, so that it can be stored
+ * outside the JVM, e.g. in an external session store, without relying on Java serialization.
+ *
+ * @see NavigationalStateCodecProvider
+ */
+public interface NavigationalStateCodec<T> {
+
+    /**
+     * Encodes the given state.
+     *
+     * @param state the state to encode, not {@code null}
+     * @return the encoded state
+     */
+    byte[] encode(T state);
+
+    /**
+     * Decodes state that was encoded by {@link #encode(Object)}.
+     *
+     * @param bytes the encoded state
+     * @return the decoded state
+     * @throws IllegalArgumentException in case {@code bytes} is not a valid encoding
+     */
+    T decode(byte[] bytes);
+
+}
@@ -0,0 +1,19 @@
+package nl.trifork.spring.navigation;
+
+/**
+ * Optionally implemented by a {@link NavigationalStateEnricher} whose attribute can be stored as a compact byte array
+ * instead of as an object, e.g. by a {@link SignedTokenNavigationStateRepository}.
+ *
+ * @param <T> the type of the attribute
+ * @see nl.trifork.spring.navigation.stack.NavigationStackEnricher
+ */
+public interface NavigationalStateCodecProvider<T> {
+
+    /**
+     * Get the codec with which the attribute can be stored as a compact byte array.
+     *
+     * @return the codec for the attribute, not {@code null}
+     */
+    NavigationalStateCodec<T> getCodec();
+
+}
@@ -0,0 +1,31 @@
+package nl.trifork.spring.navigation;
+
+/**
+ * Optionally implemented by a {@link NavigationalStateEnricher} whose attribute is a stack of navigation points that
+ * can be trimmed to a smaller depth, e.g. so that it fits in a token of a {@link
+ * SignedTokenNavigationStateRepository}.
+ *
+ * @see nl.trifork.spring.navigation.stack.NavigationStackEnricher
+ */
+public interface NavigationalStateTrimmer {
+
+    /**
+     * Get the depth to which the given attribute can be trimmed, i.e. the depth of its deepest stack.
+     *
+     * @param attribute the attribute value, not {@code null}
+     * @return the depth of the attribute, or {@code 0} in case it cannot be trimmed
+     */
+    int getTrimmableDepth(Object attribute);
+
+    /**
+     * Get a copy of the given attribute in which the oldest steps on top of the base navigation point are evicted, so
+     * that none of its stacks is deeper than the given depth. The attribute itself is left untouched.
+     *
+     * @param attribute the attribute value, not {@code null}
+     * @param depth the maximum depth to keep, at least 1
+     * @return the trimmed copy of the attribute
+     * @throws IllegalArgumentException in case {@code depth} is smaller than 1
+     */
+    Object trim(Object attribute, int depth);
+
+}
@@ -0,0 +1,176 @@
+package nl.trifork.spring.navigation;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiled rules that normalize the query string of a navigation point uri, so that uris which only differ in volatile
+ * parameters, such as cache busters and tracking ids, or in the order of their parameters, are considered the same
+ * page. This keeps e.g. the {@link nl.trifork.spring.navigation.stack.NavigationStack} from growing on every visit of
+ * such a page and lets back and refresh visits be recognized.
+ * <p/>
+ * Parameters are matched by their name as it appears in the query string. A name ending with {@code *} matches all
+ * parameters starting with the part before it. Retained parameters are applied before ignored ones; sorting orders the
+ * remaining parameters by name, keeping the order of parameters with the same name.
+ * <p/>
+ * The rules of a handler method are declared on its {@link nl.trifork.spring.navigation.annotations.NavigationPoint}
+ * annotation and compiled once. The {@link NavigationHandlerInterceptor} binds them to the request, where enrichers
+ * can {@link #find(HttpServletRequest) find} them.
+ */
+public final class QueryNormalization {
+
+    /**
+     * Normalization that leaves the query string as it is.
+     */
+    public static final QueryNormalization NONE = new QueryNormalization(Collections.<String>emptySet(),
+            Collections.<String>emptySet(), false);
+
+    private static final String REQUEST_ATTRIBUTE = QueryNormalization.class.getName();
+    private static final String WILDCARD = "*";
+    private static final Comparator<String> BY_NAME = new Comparator<String>() {
+        @Override
+        public int compare(String first, String second) {
+            return nameOf(first).compareTo(nameOf(second));
+        }
+    };
+
+    private final ParameterMatcher retained;
+    private final ParameterMatcher ignored;
+    private final boolean sorted;
+
+    /**
+     * Creates a new {@link QueryNormalization}.
+     *
+     * @param retainedParameters the names of the parameters to keep, all others are dropped; if empty, all parameters
+     *                           are kept
+     * @param ignoredParameters the names of the parameters to drop
+     * @param sortParameters whether to sort the parameters by name
+     */
+    public QueryNormalization(Collection<String> retainedParameters, Collection<String> ignoredParameters,
+                              boolean sortParameters) {
+        this.retained = retainedParameters.isEmpty() ? null : new ParameterMatcher(retainedParameters);
+        this.ignored = ignoredParameters.isEmpty() ? null : new ParameterMatcher(ignoredParameters);
+        this.sorted = sortParameters;
+    }
+
+    /**
+     * Compiles the query normalization rules of the given annotation.
+     *
+     * @param annotation the navigation point annotation
+     * @return the compiled rules, or {@code null} in case the annotation does not declare any
+     */
+    static QueryNormalization of(nl.trifork.spring.navigation.annotations.NavigationPoint annotation) {
+        if (annotation.retainedParameters().length == 0 && annotation.ignoredParameters().length == 0
+                && !annotation.sortParameters()) {
+            return null;
+        }
+        return new QueryNormalization(Arrays.asList(annotation.retainedParameters()),
+                Arrays.asList(annotation.ignoredParameters()), annotation.sortParameters());
+    }
+
+    /**
+     * Get the query normalization of the handler method of the given request.
+     *
+     * @param request the current request
+     * @return the query normalization of the handler method, or {@code null} in case it does not declare any
+     */
+    public static QueryNormalization find(HttpServletRequest request) {
+        return (QueryNormalization) request.getAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * Binds the query normalization of the handler method to the given request, or unbinds it.
+     *
+     * @param request the current request
+     * @param queryNormalization the query normalization of the handler method, or {@code null} if it has none
+     */
+    static void bind(HttpServletRequest request, QueryNormalization queryNormalization) {
+        if (queryNormalization != null) {
+            request.setAttribute(REQUEST_ATTRIBUTE, queryNormalization);
+        } else if (request.getAttribute(REQUEST_ATTRIBUTE) != null) {
+            request.removeAttribute(REQUEST_ATTRIBUTE);
+        }
+    }
+
+    /**
+     * Normalizes the given query string. Query strings that need no normalization are returned as they are.
+     *
+     * @param query the query string, may be {@code null}
+     * @return the normalized query string, or {@code null} in case no parameters remain
+     */
+    public String normalize(String query) {
+        if (query == null || (retained == null && ignored == null && !sorted)) {
+            return query;
+        }
+        String[] parameters = query.split("&");
+        List<String> normalized = new ArrayList<>(parameters.length);
+        for (String parameter : parameters) {
+            if (!parameter.isEmpty()
+                    && (retained == null || retained.matches(parameter))
+                    && (ignored == null || !ignored.matches(parameter))) {
+                normalized.add(parameter);
+            }
+        }
+        if (sorted) {
+            Collections.sort(normalized, BY_NAME);
+        }
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        if (normalized.size() == parameters.length && normalized.equals(Arrays.asList(parameters))) {
+            return query;
+        }
+        StringBuilder result = new StringBuilder(query.length());
+        for (String parameter : normalized) {
+            if (result.length() > 0) {
+                result.append('&');
+            }
+            result.append(parameter);
+        }
+        return result.toString();
+    }
+
+    private static String nameOf(String parameter) {
+        int separator = parameter.indexOf('=');
+        return separator < 0 ? parameter : parameter.substring(0, separator);
+    }
+
+    /**
+     * Matches parameters by exact name, or by prefix for names ending with a wildcard.
+     */
+    private static final class ParameterMatcher {
+
+        private final Set<String> names = new HashSet<>();
+        private final List<String> prefixes = new ArrayList<>();
+
+        private ParameterMatcher(Collection<String> patterns) {
+            for (String pattern : patterns) {
+                if (pattern.endsWith(WILDCARD)) {
+                    prefixes.add(pattern.substring(0, pattern.length() - WILDCARD.length()));
+                } else {
+                    names.add(pattern);
+                }
+            }
+        }
+
+        private boolean matches(String parameter) {
+            String name = nameOf(parameter);
+            if (names.contains(name)) {
+                return true;
+            }
+            for (String prefix : prefixes) {
+                if (name.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package nl.trifork.spring.navigation;
+
+import org.springframework.ui.ModelMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Optionally implemented by a {@link NavigationalStateEnricher} that enriches the model depending on the request, e.g.
+ * from the stack of the browser window of the request. The {@link NavigationHandlerInterceptor} then calls {@link
+ * #postHandle(ModelMap, Object, HttpServletRequest)} instead of {@link NavigationalStateEnricher#postHandle(ModelMap,
+ * Object)}.
+ *
+ * @see nl.trifork.spring.navigation.stack.NavigationStackEnricher
+ */
+public interface RequestAwareModelEnricher {
+
+    /**
+     * Enriches the model of the given request, after the attribute was updated.
+     *
+     * @param modelMap the model map for the current request
+     * @param attribute the current attribute value, not {@code null}
+     * @param request the current request
+     * @throws IllegalArgumentException in case {@code attribute} is not of the type of the enricher
+     */
+    void postHandle(ModelMap modelMap, Object attribute, HttpServletRequest request);
+
+}
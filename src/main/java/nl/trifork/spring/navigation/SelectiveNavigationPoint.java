@@ -0,0 +1,20 @@
+package nl.trifork.spring.navigation;
+
+/**
+ * {@link NavigationPoint} that declares which {@link NavigationalStateEnricher}s apply to it, so that other enrichers
+ * are skipped for its requests. The declared types are read once per controller type, so they should not change.
+ *
+ * @see nl.trifork.spring.navigation.annotations.NavigationPoint#enrichers()
+ */
+public interface SelectiveNavigationPoint extends NavigationPoint {
+
+    /**
+     * Get the types of {@link NavigationalStateEnricher}s that apply to this navigation point. Enrichers that are an
+     * instance of none of these types are skipped.
+     *
+     * @return the types of enrichers that apply, or an empty array if all enrichers apply
+     */
+    @SuppressWarnings("rawtypes")
+    Class<? extends NavigationalStateEnricher>[] getEnrichers();
+
+}
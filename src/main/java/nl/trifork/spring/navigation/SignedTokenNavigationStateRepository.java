@@ -0,0 +1,364 @@
+package nl.trifork.spring.navigation;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link NavigationStateRepository} that keeps the navigational state at the client, as a signed token per attribute,
+ * so that no state is kept on the server at all. This removes the need for sessions and sticky sessions for
+ * navigation. Subclasses decide how the token is carried, see {@link CookieNavigationStateRepository} and {@link
+ * HeaderNavigationStateRepository}.
+ * <p/>
+ * Attributes are encoded with the {@link NavigationalStateCodec} of their {@link NavigationalStateEnricher}, which
+ * should be a {@link NavigationalStateCodecProvider}, and deflated when that makes them smaller. The token is signed
+ * with HMAC-SHA256 over the attribute name, the {@link #getTokenBinding(HttpServletRequest) binding} of the request,
+ * the time it was issued and the encoded attribute; tokens with an invalid signature or encoding are ignored, as if
+ * there were no state. As a token is only issued when its attribute changed, and it is read at most once per request,
+ * verification is cheap.
+ * <p/>
+ * Tokens expire after their {@link #setTimeToLive(long, TimeUnit) time to live}, counted from when they were issued,
+ * which is the last time the state changed, so that a token that leaked cannot be replayed indefinitely. A token can
+ * also be bound to the client it was issued to, e.g. to its login session, by overriding {@link
+ * #getTokenBinding(HttpServletRequest)}; a token presented with another binding is ignored.
+ * <p/>
+ * Tokens are limited to {@link #getMaxTokenLength()} characters, as browsers limit the size of cookies and servers
+ * the size of headers. When a token would exceed this, and its enricher is a {@link NavigationalStateTrimmer}, the
+ * oldest steps are left out of the token until it fits; the deepest depth that fits is found by bisection. Only when
+ * not even the base navigation point fits, or the attribute cannot be trimmed, is the token discarded, so that the
+ * client starts afresh. The state of the current request is left untouched.
+ * <p/>
+ * As tokens are written to the response, changed state must be saved before the response is committed. The {@link
+ * NavigationHandlerInterceptor} does so at the end of {@link NavigationHandlerInterceptor#postHandle}.
+ */
+public abstract class SignedTokenNavigationStateRepository implements NavigationStateRepository {
+
+    /**
+     * The default maximum token length, which keeps a cookie including its name within the 4096 bytes that browsers
+     * support.
+     */
+    public static final int DEFAULT_MAX_TOKEN_LENGTH = 4000;
+
+    /**
+     * The default time to live of a token, in minutes.
+     */
+    public static final int DEFAULT_TIME_TO_LIVE_MINUTES = 30;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MIN_SECRET_LENGTH = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final char SEPARATOR = '.';
+    private static final int ISSUED_AT_LENGTH = 8;
+
+    private final SecretKeySpec key;
+    private final Map<String, NavigationalStateCodec<Object>> codecs = new HashMap<>();
+    private final Map<String, NavigationalStateTrimmer> trimmers = new HashMap<>();
+    private final ThreadLocal<Mac> macs = new ThreadLocal<>();
+
+    private int maxTokenLength = DEFAULT_MAX_TOKEN_LENGTH;
+    private long timeToLiveMillis = TimeUnit.MINUTES.toMillis(DEFAULT_TIME_TO_LIVE_MINUTES);
+
+    /**
+     * Creates a new {@link SignedTokenNavigationStateRepository}.
+     *
+     * @param secret the secret the tokens are signed with, shared by all servers, at least 16 bytes
+     * @param enrichers the enrichers of which the state is kept, each of which should be a {@link
+     *                  NavigationalStateCodecProvider}
+     * @throws IllegalArgumentException in case the secret is too short or an enricher has no codec
+     */
+    @SuppressWarnings("unchecked")
+    protected SignedTokenNavigationStateRepository(byte[] secret,
+                                                   Collection<? extends NavigationalStateEnricher<?>> enrichers) {
+        if (secret == null || secret.length < MIN_SECRET_LENGTH) {
+            throw new IllegalArgumentException("Secret should be at least " + MIN_SECRET_LENGTH + " bytes");
+        }
+        this.key = new SecretKeySpec(Arrays.copyOf(secret, secret.length), MAC_ALGORITHM);
+        for (NavigationalStateEnricher<?> enricher : enrichers) {
+            NavigationalStateCodec<?> codec = enricher instanceof NavigationalStateCodecProvider
+                    ? ((NavigationalStateCodecProvider<?>) enricher).getCodec() : null;
+            if (codec == null) {
+                throw new IllegalArgumentException("Enricher " + enricher.getClass().getName() + " of attribute "
+                        + enricher.sessionAttributeName() + " has no codec");
+            }
+            codecs.put(enricher.sessionAttributeName(), (NavigationalStateCodec<Object>) codec);
+            if (enricher instanceof NavigationalStateTrimmer) {
+                trimmers.put(enricher.sessionAttributeName(), (NavigationalStateTrimmer) enricher);
+            }
+        }
+    }
+
+    /**
+     * Reads the token for the given attribute from the request.
+     *
+     * @param request the current request
+     * @param attributeName the name of the attribute
+     * @return the token, or {@code null} in case there is none
+     */
+    protected abstract String readToken(HttpServletRequest request, String attributeName);
+
+    /**
+     * Writes the token for the given attribute to the response.
+     *
+     * @param request the current request
+     * @param response the current response
+     * @param attributeName the name of the attribute
+     * @param token the token, or {@code null} to discard the token the client has
+     */
+    protected abstract void writeToken(HttpServletRequest request, HttpServletResponse response, String attributeName,
+                                       String token);
+
+    /**
+     * Get the binding of the tokens of the given request, which is signed along with each token, so that a token is
+     * only accepted with the same binding it was issued with. Override to bind tokens to e.g. the id of the login
+     * session or a nonce the client keeps. This implementation does not bind tokens.
+     *
+     * @param request the current request
+     * @return the binding, or {@code null} in case tokens are not bound
+     */
+    protected String getTokenBinding(HttpServletRequest request) {
+        return null;
+    }
+
+    @Override
+    public Object load(HttpServletRequest request, String attributeName) {
+        NavigationalStateCodec<Object> codec = codecs.get(attributeName);
+        String token = readToken(request, attributeName);
+        if (codec == null || token == null) {
+            return null;
+        }
+        try {
+            byte[] payload = verify(attributeName, getTokenBinding(request), token);
+            return payload == null ? null : codec.decode(unpack(payload));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation returns the length of the issued token, or {@code 0} in case the token was discarded. A
+     * token that would exceed the maximum length is trimmed to fit, if possible.
+     *
+     * @throws IllegalArgumentException in case no codec is known for the given attribute
+     */
+    @Override
+    public int save(HttpServletRequest request, HttpServletResponse response, String attributeName, Object value) {
+        NavigationalStateCodec<Object> codec = codecs.get(attributeName);
+        if (codec == null) {
+            throw new IllegalArgumentException("No codec for attribute " + attributeName);
+        }
+        String binding = getTokenBinding(request);
+        long issuedAt = currentTimeMillis();
+        String token = value == null ? null : sign(attributeName, binding, pack(issuedAt, codec.encode(value)));
+        if (token != null && token.length() > maxTokenLength) {
+            NavigationalStateTrimmer trimmer = trimmers.get(attributeName);
+            token = trimmer == null ? null : trimToFit(attributeName, binding, issuedAt, codec, trimmer, value);
+        }
+        writeToken(request, response, attributeName, token);
+        return token == null ? 0 : token.length();
+    }
+
+    /**
+     * Get the maximum length of a token, in characters.
+     *
+     * @return the maximum token length
+     */
+    public int getMaxTokenLength() {
+        return maxTokenLength;
+    }
+
+    /**
+     * Sets the maximum length of a token, in characters. Defaults to {@value #DEFAULT_MAX_TOKEN_LENGTH}.
+     *
+     * @param maxTokenLength the maximum token length
+     */
+    public void setMaxTokenLength(int maxTokenLength) {
+        if (maxTokenLength <= 0) {
+            throw new IllegalArgumentException("Max token length should be positive, but was: " + maxTokenLength);
+        }
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    /**
+     * Get the time to live of a token, in milliseconds.
+     *
+     * @return the time to live
+     */
+    public long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * Sets the time after which a token expires, counted from when it was issued. Defaults to {@value
+     * #DEFAULT_TIME_TO_LIVE_MINUTES} minutes.
+     *
+     * @param timeToLive the time to live
+     * @param unit the unit of {@code timeToLive}
+     * @throws IllegalArgumentException in case {@code timeToLive} is not positive
+     */
+    public void setTimeToLive(long timeToLive, TimeUnit unit) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live should be positive, but was: " + timeToLive);
+        }
+        this.timeToLiveMillis = unit.toMillis(timeToLive);
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Bisects the depth to which the attribute is trimmed for the deepest one of which the token fits.
+     *
+     * @return the token of the trimmed attribute, or {@code null} in case not even the base navigation point fits
+     */
+    private String trimToFit(String attributeName, String binding, long issuedAt, NavigationalStateCodec<Object> codec,
+                             NavigationalStateTrimmer trimmer, Object value) {
+        String fitting = null;
+        int low = 1;
+        int high = trimmer.getTrimmableDepth(value) - 1;
+        while (low <= high) {
+            int depth = (low + high) >>> 1;
+            String token = sign(attributeName, binding, pack(issuedAt, codec.encode(trimmer.trim(value, depth))));
+            if (token.length() <= maxTokenLength) {
+                fitting = token;
+                low = depth + 1;
+            } else {
+                high = depth - 1;
+            }
+        }
+        return fitting;
+    }
+
+    private String sign(String attributeName, String binding, byte[] payload) {
+        return Base64Url.encode(payload) + SEPARATOR + Base64Url.encode(mac(attributeName, binding, payload));
+    }
+
+    /**
+     * @return the payload of the token, or {@code null} in case its signature is invalid or it has expired
+     */
+    private byte[] verify(String attributeName, String binding, String token) {
+        int separator = token.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        byte[] payload = Base64Url.decode(token.substring(0, separator));
+        byte[] signature = Base64Url.decode(token.substring(separator + 1));
+        if (!MessageDigest.isEqual(signature, mac(attributeName, binding, payload))) {
+            return null;
+        }
+        return currentTimeMillis() - readIssuedAt(payload) > timeToLiveMillis ? null : payload;
+    }
+
+    private byte[] mac(String attributeName, String binding, byte[] payload) {
+        Mac mac = macs.get();
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(key);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            macs.set(mac);
+        }
+        mac.update(attributeName.getBytes(UTF_8));
+        mac.update((byte) 0);
+        if (binding != null) {
+            mac.update(binding.getBytes(UTF_8));
+        }
+        mac.update((byte) 0);
+        return mac.doFinal(payload);
+    }
+
+    /**
+     * Packs the given encoded attribute behind the time it was issued at, which takes the first {@value
+     * #ISSUED_AT_LENGTH} bytes of the payload.
+     */
+    private static byte[] pack(long issuedAt, byte[] encoded) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ISSUED_AT_LENGTH + encoded.length + 1);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (issuedAt >>> shift));
+        }
+        int headerLength = out.size();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(encoded);
+            deflater.finish();
+            out.write(DEFLATED);
+            byte[] buffer = new byte[256];
+            while (!deflater.finished() && out.size() - headerLength <= encoded.length) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            if (deflater.finished() && out.size() - headerLength <= encoded.length) {
+                return out.toByteArray();
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] raw = Arrays.copyOf(out.toByteArray(), headerLength + encoded.length + 1);
+        raw[headerLength] = RAW;
+        System.arraycopy(encoded, 0, raw, headerLength + 1, encoded.length);
+        return raw;
+    }
+
+    private static long readIssuedAt(byte[] payload) {
+        if (payload.length < ISSUED_AT_LENGTH) {
+            throw new IllegalArgumentException("Truncated token payload");
+        }
+        long issuedAt = 0;
+        for (int i = 0; i < ISSUED_AT_LENGTH; i++) {
+            issuedAt = issuedAt << 8 | (payload[i] & 0xFF);
+        }
+        return issuedAt;
+    }
+
+    private byte[] unpack(byte[] payload) {
+        int offset = ISSUED_AT_LENGTH;
+        if (payload.length <= offset) {
+            throw new IllegalArgumentException("Empty token payload");
+        }
+        if (payload[offset] == RAW) {
+            return Arrays.copyOfRange(payload, offset + 1, payload.length);
+        }
+        if (payload[offset] != DEFLATED) {
+            throw new IllegalArgumentException("Unknown token payload format: " + payload[offset]);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(payload, offset + 1, payload.length - offset - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4 * payload.length);
+            byte[] buffer = new byte[256];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated token payload");
+                }
+                out.write(buffer, 0, inflated);
+                if (out.size() > 16 * maxTokenLength) {
+                    throw new IllegalArgumentException("Token payload inflates beyond limit");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -12,6 +12,7 @@ public abstract class SimpleNavigationalStateEnricher<T> implements Navigational
 
     private final String attributeName;
     private final Class<T> domainClass;
+    private NavigationStateRepository navigationStateRepository = new HttpSessionNavigationStateRepository();
 
     public SimpleNavigationalStateEnricher(String attributeName, Class<T> domainClass) {
         this.attributeName = attributeName;
@@ -53,11 +54,59 @@ public abstract class SimpleNavigationalStateEnricher<T> implements Navigational
         modelMap.put(attributeName, castAttribute);
     }
 
+    /**
+     * Sets the repository in which the state is kept, as the {@link NavigationHandlerInterceptor} does for the
+     * enrichers it calls. Defaults to the session.
+     *
+     * @param navigationStateRepository the repository in which the state is kept
+     */
+    void setNavigationStateRepository(NavigationStateRepository navigationStateRepository) {
+        this.navigationStateRepository = navigationStateRepository;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * When called while handling a request intercepted by the {@link NavigationHandlerInterceptor}, the update is
+     * applied to the state cached for that request, which is saved to the {@link NavigationStateRepository} when the
+     * request completes. Otherwise the attribute is updated on the given session, which is only possible if that is
+     * where the state is kept.
+     *
+     * @throws IllegalStateException in case no intercepted request is being handled and the state is not kept on the
+     *                               session
+     */
     @Override
     public T update(SessionAttributeUpdater<T> updater, HttpSession session) {
+        NavigationalStateCache state = NavigationalStateCache.findCurrent();
+        if (state != null) {
+            T updated = updater.update(state.getAttribute(sessionAttributeName()), domainClass);
+            state.setAttribute(sessionAttributeName(), updated);
+            return updated;
+        }
+        if (!(navigationStateRepository instanceof HttpSessionNavigationStateRepository)) {
+            throw new IllegalStateException("Attribute " + sessionAttributeName() + " is kept in "
+                    + navigationStateRepository.getClass().getName()
+                    + ", so it can only be updated while handling a request intercepted by the "
+                    + NavigationHandlerInterceptor.class.getSimpleName());
+        }
         Object attribute = session.getAttribute(sessionAttributeName());
         T updated = updater.update(attribute, domainClass);
         session.setAttribute(sessionAttributeName(), updated);
         return updated;
     }
+
+    /**
+     * Reads the current value of the attribute, preferring the state cached for the current request over the {@link
+     * NavigationStateRepository}.
+     *
+     * @param request the http request (which includes the session)
+     * @return the current attribute value, or {@code null} if not present
+     */
+    protected Object retrieveAttribute(HttpServletRequest request) {
+        NavigationalStateCache state = NavigationalStateCache.find(request);
+        if (state != null) {
+            return state.getAttribute(sessionAttributeName());
+        }
+        return navigationStateRepository.load(request, sessionAttributeName());
+    }
 }
@@ -0,0 +1,30 @@
+package nl.trifork.spring.navigation;
+
+/**
+ * {@link NavigationStateRepository} of which the state of idle sessions can be compacted in the background by the
+ * {@link NavigationStateSweeper}. The state is divided into segments, which are swept one at a time, so that a sweep
+ * can be spread over several runs.
+ *
+ * @see InMemoryNavigationStateRepository
+ */
+public interface SweepableNavigationStateRepository extends NavigationStateRepository {
+
+    /**
+     * Get the number of segments the state is divided into.
+     *
+     * @return the number of segments
+     */
+    int getSegmentCount();
+
+    /**
+     * Compacts the state of the sessions in the given segment that have been idle for at least the given time, and
+     * have not been compacted since they were last accessed.
+     *
+     * @param segment the index of the segment, from {@code 0} to {@link #getSegmentCount()}
+     * @param minIdleMillis the minimum idle time in milliseconds
+     * @param compactor the compactor of the attributes
+     * @return the estimated number of bytes reclaimed
+     */
+    long compactIdle(int segment, long minIdleMillis, NavigationStateCompactor compactor);
+
+}
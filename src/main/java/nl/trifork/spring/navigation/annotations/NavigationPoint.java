@@ -1,6 +1,7 @@
 package nl.trifork.spring.navigation.annotations;
 
 import nl.trifork.spring.navigation.NavigationPointType;
+import nl.trifork.spring.navigation.NavigationalStateEnricher;
 
 import java.lang.annotation.*;
 
@@ -32,4 +33,43 @@ public @interface NavigationPoint {
      */
     NavigationPointType value();
 
+    /**
+     * The types of {@link NavigationalStateEnricher}s that apply to the navigation point. Enrichers that are an
+     * instance of none of these types are skipped for the mapped requests. By default, all enrichers apply.
+     *
+     * @return the types of enrichers that apply, or an empty array if all enrichers apply
+     */
+    @SuppressWarnings("rawtypes")
+    Class<? extends NavigationalStateEnricher>[] enrichers() default {};
+
+    /**
+     * The names of the query parameters that identify the navigation point uri; all other parameters are dropped before
+     * the uri is compared and stored, e.g. by the {@link nl.trifork.spring.navigation.stack.NavigationStackEnricher}. A
+     * name ending with {@code *} matches all parameters starting with the part before it. By default, all parameters
+     * are retained.
+     *
+     * @return the names of the query parameters to retain, or an empty array if all are retained
+     * @see nl.trifork.spring.navigation.QueryNormalization
+     */
+    String[] retainedParameters() default {};
+
+    /**
+     * The names of volatile query parameters, such as cache busters and tracking ids, that are dropped before the
+     * navigation point uri is compared and stored. A name ending with {@code *} matches all parameters starting with
+     * the part before it.
+     *
+     * @return the names of the query parameters to drop
+     * @see nl.trifork.spring.navigation.QueryNormalization
+     */
+    String[] ignoredParameters() default {};
+
+    /**
+     * Whether the query parameters are sorted by name before the navigation point uri is compared and stored, so that
+     * the order in which they are given does not matter.
+     *
+     * @return whether the query parameters are sorted
+     * @see nl.trifork.spring.navigation.QueryNormalization
+     */
+    boolean sortParameters() default false;
+
 }
@@ -0,0 +1,84 @@
+package nl.trifork.spring.navigation.events;
+
+import nl.trifork.spring.navigation.NavigationMetrics.Transition;
+
+/**
+ * A navigation point visit that updated a navigation stack, as delivered to a {@link NavigationEventConsumer}. Uris are
+ * identified by their JVM-local ids, the same as those recorded in the {@link
+ * nl.trifork.spring.navigation.NavigationMetrics}, and only resolved when asked for, on the thread of the consumer. A
+ * resolved uri is given as stored on the stack: the request path including its normalized query string, if any.
+ */
+public final class NavigationEvent {
+
+    private final NavigationUriResolver uriResolver;
+    private final int fromUriId;
+    private final int toUriId;
+    private final Transition transition;
+    private final long timestamp;
+
+    /**
+     * Creates a new {@link NavigationEvent}.
+     *
+     * @param uriResolver the resolver of the uri ids
+     * @param fromUriId the id of the last uri of the navigation stack before the visit
+     * @param toUriId the id of the visited uri
+     * @param transition the way in which the navigation stack changed
+     * @param timestamp the time of the visit, in milliseconds since the epoch
+     */
+    public NavigationEvent(NavigationUriResolver uriResolver, int fromUriId, int toUriId, Transition transition,
+                           long timestamp) {
+        this.uriResolver = uriResolver;
+        this.fromUriId = fromUriId;
+        this.toUriId = toUriId;
+        this.transition = transition;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return the id of the last uri of the navigation stack before the visit
+     */
+    public int getFromUriId() {
+        return fromUriId;
+    }
+
+    /**
+     * @return the id of the visited uri
+     */
+    public int getToUriId() {
+        return toUriId;
+    }
+
+    /**
+     * @return the last uri of the navigation stack before the visit, including its query string if any, or {@code
+     * null} in case it has been evicted since
+     */
+    public String getFromUri() {
+        return uriResolver.resolveUri(fromUriId);
+    }
+
+    /**
+     * @return the visited uri, including its query string if any, or {@code null} in case it has been evicted since
+     */
+    public String getToUri() {
+        return uriResolver.resolveUri(toUriId);
+    }
+
+    /**
+     * @return the way in which the navigation stack changed; {@link Transition#REBASE} for base page visits
+     */
+    public Transition getTransition() {
+        return transition;
+    }
+
+    /**
+     * @return the time of the visit, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return transition + " " + getFromUri() + " -> " + getToUri() + " at " + timestamp;
+    }
+}
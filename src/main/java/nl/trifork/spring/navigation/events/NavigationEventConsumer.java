@@ -0,0 +1,20 @@
+package nl.trifork.spring.navigation.events;
+
+import java.util.List;
+
+/**
+ * Consumes the navigation events of a {@link NavigationEventStream}, e.g. to feed them into analytics. Consumers are
+ * called on the background thread of the stream, never on a request thread, so they may take their time; while they
+ * do, events are buffered, and dropped once the buffers are full.
+ */
+public interface NavigationEventConsumer {
+
+    /**
+     * Consumes a batch of navigation events. The events of a single request thread are in the order in which they were
+     * published; events of different threads are not ordered.
+     *
+     * @param events the events, not to be modified nor kept after returning
+     */
+    void consume(List<NavigationEvent> events);
+
+}
@@ -0,0 +1,337 @@
+package nl.trifork.spring.navigation.events;
+
+import nl.trifork.spring.navigation.NavigationMetrics.Transition;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes navigation transitions on to {@link NavigationEventConsumer}s off the request thread, so that e.g. feeding
+ * analytics does not add to the latency of page views. The {@link
+ * nl.trifork.spring.navigation.stack.NavigationStackEnricher} publishes its transitions to the stream when one is
+ * registered.
+ * <p/>
+ * Each request thread publishes into a bounded ring buffer of its own, of which it is the only writer, so publishing
+ * neither locks nor allocates. Events hold the ids of their uris, which the consumers resolve when needed. A background
+ * thread periodically drains the buffers of all threads and delivers the events to the consumers in batches. When the
+ * buffer of a thread is full, because the consumers do not keep up, new events of that thread are dropped and counted,
+ * rather than blocking the request.
+ * <p/>
+ * Declare the stream as a bean to start it with the application context, or call {@link #start()} and {@link
+ * #stop()}.
+ */
+public class NavigationEventStream implements InitializingBean, DisposableBean {
+
+    /**
+     * The default number of events that are buffered per thread.
+     */
+    public static final int DEFAULT_BUFFER_CAPACITY = 1024;
+
+    /**
+     * The default maximum number of events delivered to the consumers at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * The default interval between drains, in milliseconds.
+     */
+    public static final long DEFAULT_DRAIN_INTERVAL_MILLIS = 100;
+
+    private static final Transition[] TRANSITIONS = Transition.values();
+
+    private final List<NavigationEventConsumer> consumers = new CopyOnWriteArrayList<>();
+    private final List<EventBuffer> buffers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<EventBuffer> threadBuffer = new ThreadLocal<>();
+    private final AtomicLong retiredPublishedCount = new AtomicLong();
+    private final AtomicLong retiredDroppedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failedDeliveryCount = new AtomicLong();
+    private volatile int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long drainIntervalMillis = DEFAULT_DRAIN_INTERVAL_MILLIS;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a new {@link NavigationEventStream}.
+     *
+     * @param consumers the consumers to deliver the events to
+     */
+    public NavigationEventStream(NavigationEventConsumer... consumers) {
+        this.consumers.addAll(Arrays.asList(consumers));
+    }
+
+    /**
+     * Registers an additional consumer, which receives the events drained from then on.
+     *
+     * @param consumer the consumer
+     */
+    public void register(NavigationEventConsumer consumer) {
+        consumers.add(consumer);
+    }
+
+    /**
+     * Sets the number of events that are buffered per thread, rounded up to a power of two. Defaults to {@value
+     * #DEFAULT_BUFFER_CAPACITY}. Applies to threads that publish their first event after it is set.
+     *
+     * @param bufferCapacity the buffer capacity
+     * @throws IllegalArgumentException in case {@code bufferCapacity} is not positive
+     */
+    public void setBufferCapacity(int bufferCapacity) {
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity should be positive, but was: " + bufferCapacity);
+        }
+        this.bufferCapacity = bufferCapacity;
+    }
+
+    /**
+     * Sets the maximum number of events delivered to the consumers at once. Defaults to {@value #DEFAULT_BATCH_SIZE}.
+     *
+     * @param batchSize the batch size
+     * @throws IllegalArgumentException in case {@code batchSize} is not positive
+     */
+    public synchronized void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size should be positive, but was: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the interval between drains. Defaults to {@value #DEFAULT_DRAIN_INTERVAL_MILLIS} milliseconds. Takes effect
+     * on the next {@link #start()}.
+     *
+     * @param drainIntervalMillis the interval in milliseconds
+     * @throws IllegalArgumentException in case {@code drainIntervalMillis} is not positive
+     */
+    public void setDrainIntervalMillis(long drainIntervalMillis) {
+        if (drainIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Drain interval should be positive, but was: " + drainIntervalMillis);
+        }
+        this.drainIntervalMillis = drainIntervalMillis;
+    }
+
+    /**
+     * Starts draining periodically. Does nothing in case the stream is already started.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "navigation-event-stream");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops draining periodically, and delivers the events that are still buffered.
+     */
+    public void stop() {
+        ScheduledExecutorService stopped;
+        synchronized (this) {
+            stopped = scheduler;
+            scheduler = null;
+        }
+        if (stopped != null) {
+            stopped.shutdown();
+            try {
+                stopped.awaitTermination(drainIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            drain();
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        start();
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    /**
+     * Publishes a navigation transition of the current thread. Never blocks; the event is dropped in case the buffer of
+     * the current thread is full.
+     *
+     * @param uriResolver the resolver of the uri ids
+     * @param fromUriId the id of the last uri of the navigation stack before the visit
+     * @param toUriId the id of the visited uri
+     * @param transition the way in which the navigation stack changed
+     * @return whether the event was buffered
+     */
+    public boolean publish(NavigationUriResolver uriResolver, int fromUriId, int toUriId, Transition transition) {
+        EventBuffer buffer = threadBuffer.get();
+        if (buffer == null) {
+            buffer = new EventBuffer(Thread.currentThread(), bufferCapacity);
+            buffers.add(buffer);
+            threadBuffer.set(buffer);
+        }
+        return buffer.offer(uriResolver, fromUriId, toUriId, transition, System.currentTimeMillis());
+    }
+
+    /**
+     * Delivers all buffered events to the consumers, in batches. A consumer that fails does not keep the others from
+     * receiving the batch, nor is the batch delivered to it again. Buffers of threads that have died are discarded
+     * once drained.
+     *
+     * @return the number of events drained
+     */
+    public synchronized long drain() {
+        List<NavigationEvent> batch = new ArrayList<>(Math.min(batchSize, bufferCapacity));
+        long drained = 0;
+        for (EventBuffer buffer : buffers) {
+            boolean alive = buffer.owner.isAlive();
+            while (buffer.poll(batch, batchSize) > 0) {
+                deliver(batch);
+                drained += batch.size();
+                batch.clear();
+            }
+            if (!alive) {
+                buffers.remove(buffer);
+                retiredPublishedCount.addAndGet(buffer.tail.get());
+                retiredDroppedCount.addAndGet(buffer.droppedCount.get());
+            }
+        }
+        return drained;
+    }
+
+    private void deliver(List<NavigationEvent> batch) {
+        for (NavigationEventConsumer consumer : consumers) {
+            try {
+                consumer.consume(batch);
+                deliveredCount.addAndGet(batch.size());
+            } catch (RuntimeException e) {
+                failedDeliveryCount.addAndGet(batch.size());
+            }
+        }
+    }
+
+    /**
+     * Get the number of events that were buffered so far.
+     *
+     * @return the number of published events
+     */
+    public long getPublishedCount() {
+        long count = retiredPublishedCount.get();
+        for (EventBuffer buffer : buffers) {
+            count += buffer.tail.get();
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of events that were dropped so far because the buffer of their thread was full.
+     *
+     * @return the number of dropped events
+     */
+    public long getDroppedCount() {
+        long count = retiredDroppedCount.get();
+        for (EventBuffer buffer : buffers) {
+            count += buffer.droppedCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of events that were consumed so far, counted once for each consumer that consumed them.
+     *
+     * @return the number of delivered events
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * Get the number of events that failed to be consumed so far, counted once for each consumer that failed on the
+     * batch containing them.
+     *
+     * @return the number of events of which delivery failed
+     */
+    public long getFailedDeliveryCount() {
+        return failedDeliveryCount.get();
+    }
+
+    /**
+     * Ring buffer of the events of a single thread. The owning thread is the only one to advance the tail, the draining
+     * thread the only one to advance the head; the ordered writes of both publish the slots to each other.
+     */
+    private static final class EventBuffer {
+
+        private final Thread owner;
+        private final int mask;
+        private final NavigationUriResolver[] uriResolvers;
+        private final int[] fromUriIds;
+        private final int[] toUriIds;
+        private final byte[] transitions;
+        private final long[] timestamps;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong droppedCount = new AtomicLong();
+
+        private EventBuffer(Thread owner, int capacity) {
+            int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+            this.owner = owner;
+            this.mask = size - 1;
+            this.uriResolvers = new NavigationUriResolver[size];
+            this.fromUriIds = new int[size];
+            this.toUriIds = new int[size];
+            this.transitions = new byte[size];
+            this.timestamps = new long[size];
+        }
+
+        private boolean offer(NavigationUriResolver uriResolver, int fromUriId, int toUriId, Transition transition,
+                              long timestamp) {
+            long position = tail.get();
+            if (position - head.get() > mask) {
+                droppedCount.lazySet(droppedCount.get() + 1);
+                return false;
+            }
+            int slot = (int) position & mask;
+            uriResolvers[slot] = uriResolver;
+            fromUriIds[slot] = fromUriId;
+            toUriIds[slot] = toUriId;
+            transitions[slot] = (byte) transition.ordinal();
+            timestamps[slot] = timestamp;
+            tail.lazySet(position + 1);
+            return true;
+        }
+
+        /**
+         * @return the number of events added to the batch
+         */
+        private int poll(List<NavigationEvent> batch, int maxEvents) {
+            long position = head.get();
+            int count = (int) Math.min(tail.get() - position, maxEvents);
+            for (int i = 0; i < count; i++) {
+                int slot = (int) (position + i) & mask;
+                batch.add(new NavigationEvent(uriResolvers[slot], fromUriIds[slot], toUriIds[slot],
+                        TRANSITIONS[transitions[slot]], timestamps[slot]));
+            }
+            head.lazySet(position + count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package nl.trifork.spring.navigation.events;
+
+/**
+ * Resolves the JVM-local ids of the uris in {@link NavigationEvent}s, so that events can be published without the
+ * strings of their uris, and these are only looked up by the consumers that need them.
+ */
+public interface NavigationUriResolver {
+
+    /**
+     * Resolves the given uri id.
+     *
+     * @param uriId the id of the uri
+     * @return the uri including its query string if any, or {@code null} in case it is no longer known, e.g. because
+     * it has been evicted since the event was published
+     */
+    String resolveUri(int uriId);
+
+}
@@ -0,0 +1,68 @@
+package nl.trifork.spring.navigation.stack;
+
+import nl.trifork.spring.navigation.stack.NavigationStackEnricher.DegradationLevel;
+
+/**
+ * Applies the {@link DegradationLevel} of a {@link NavigationStackEnricher} to the stacks it visits. Callers read the
+ * level once per visit, so that a level set concurrently applies to the next visit as a whole.
+ */
+final class DegradationPolicy {
+
+    private final int maxDepth;
+    private int reducedMaxDepth = NavigationStackEnricher.DEFAULT_REDUCED_MAX_DEPTH;
+    private volatile DegradationLevel level = DegradationLevel.NORMAL;
+
+    DegradationPolicy(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    DegradationLevel getLevel() {
+        return level;
+    }
+
+    void setLevel(DegradationLevel level) {
+        if (level == null) {
+            throw new IllegalArgumentException("Degradation level should not be null");
+        }
+        this.level = level;
+    }
+
+    void setReducedMaxDepth(int reducedMaxDepth) {
+        if (reducedMaxDepth < 2) {
+            throw new IllegalArgumentException("Reduced max depth should be at least 2, but was: " + reducedMaxDepth);
+        }
+        this.reducedMaxDepth = reducedMaxDepth;
+    }
+
+    /**
+     * @return whether new window stacks are created at the given level
+     */
+    static boolean createsWindows(DegradationLevel level) {
+        return level.compareTo(DegradationLevel.NO_NEW_STEPS) < 0;
+    }
+
+    /**
+     * Visits the given step on the given stack, trimmed to the reduced maximum depth and without adding steps as the
+     * given level requires; the level should not be {@link DegradationLevel#BASE_ONLY}.
+     *
+     * @return what the visit did to the stack
+     */
+    NavigationStack.StepVisit visitStep(NavigationStack navigationStack, NavigationUri uri, DegradationLevel level) {
+        if (level == DegradationLevel.NORMAL) {
+            return navigationStack.visitStep(uri);
+        }
+        return navigationStack.visitStep(uri, Math.min(reducedMaxDepth, maxDepth),
+                level == DegradationLevel.REDUCED_DEPTH);
+    }
+
+    /**
+     * Trims the given stack and all of its window stacks to their base uri, as {@link DegradationLevel#BASE_ONLY}
+     * requires.
+     */
+    void trimToBase(NavigationStack navigation) {
+        navigation.trim(1);
+        for (NavigationStack window : navigation.getWindows().values()) {
+            window.trim(1);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package nl.trifork.spring.navigation.stack;
+
+import nl.trifork.spring.navigation.stack.NavigationStackEnricher.DegradationLevel;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Degrades the navigational state of a {@link NavigationStackEnricher} when the heap comes under pressure, so that
+ * navigation stacks do not add to a full GC storm or an out of memory error.
+ * <p/>
+ * The monitor sets a collection usage threshold on the heap memory pools that support it, and listens to the
+ * notifications of the {@link java.lang.management.MemoryMXBean} when it is exceeded. Only the usage right after a
+ * garbage collection is considered, as the usage in between also counts garbage that is yet to be collected. The
+ * fraction of the fullest pool that is still used after its last collection then determines the {@link
+ * DegradationLevel}: from the first threshold on, stacks are trimmed to a reduced depth; from the second, no new steps
+ * are added; and from the third, only base uris are kept. As the JVM does not notify when usage drops, the used
+ * fraction is also checked periodically, and the level is lowered again once it is sufficiently below the threshold of
+ * the current level.
+ * <p/>
+ * Declare the monitor as a bean to start it with the application context, or call {@link #start()} and {@link #stop()}.
+ * Note that the collection usage thresholds of the heap memory pools are shared by the whole JVM; the thresholds that
+ * were set before the monitor started are restored when it stops.
+ */
+public class MemoryPressureMonitor implements NotificationListener, InitializingBean, DisposableBean {
+
+    /**
+     * The default used fraction of the heap from which stacks are trimmed to a reduced depth.
+     */
+    public static final double DEFAULT_REDUCED_DEPTH_THRESHOLD = 0.70;
+
+    /**
+     * The default used fraction of the heap from which no new steps are added.
+     */
+    public static final double DEFAULT_NO_NEW_STEPS_THRESHOLD = 0.80;
+
+    /**
+     * The default used fraction of the heap from which only base uris are kept.
+     */
+    public static final double DEFAULT_BASE_ONLY_THRESHOLD = 0.90;
+
+    /**
+     * The default interval in milliseconds at which the used fraction of the heap is checked.
+     */
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 5000;
+
+    /**
+     * The margin by which the used fraction should drop below the threshold of a level before it is lowered, so that
+     * the level does not flap.
+     */
+    private static final double RECOVERY_MARGIN = 0.05;
+
+    private final NavigationStackEnricher navigationStackEnricher;
+    private final double[] thresholds;
+    private final Map<MemoryPoolMXBean, Long> previousThresholds = new LinkedHashMap<>();
+    private long checkIntervalMillis = DEFAULT_CHECK_INTERVAL_MILLIS;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a new {@link MemoryPressureMonitor} with the default thresholds.
+     *
+     * @param navigationStackEnricher the enricher of which the navigational state is degraded
+     * @see MemoryPressureMonitor#MemoryPressureMonitor(NavigationStackEnricher, double, double, double)
+     */
+    public MemoryPressureMonitor(NavigationStackEnricher navigationStackEnricher) {
+        this(navigationStackEnricher, DEFAULT_REDUCED_DEPTH_THRESHOLD, DEFAULT_NO_NEW_STEPS_THRESHOLD,
+                DEFAULT_BASE_ONLY_THRESHOLD);
+    }
+
+    /**
+     * Creates a new {@link MemoryPressureMonitor}.
+     *
+     * @param navigationStackEnricher the enricher of which the navigational state is degraded
+     * @param reducedDepthThreshold the used fraction of the heap from which stacks are trimmed to a reduced depth
+     * @param noNewStepsThreshold the used fraction of the heap from which no new steps are added
+     * @param baseOnlyThreshold the used fraction of the heap from which only base uris are kept
+     * @throws IllegalArgumentException in case the thresholds are not ascending fractions between 0 and 1
+     */
+    public MemoryPressureMonitor(NavigationStackEnricher navigationStackEnricher, double reducedDepthThreshold,
+                                 double noNewStepsThreshold, double baseOnlyThreshold) {
+        if (!(0 < reducedDepthThreshold && reducedDepthThreshold <= noNewStepsThreshold
+                && noNewStepsThreshold <= baseOnlyThreshold && baseOnlyThreshold <= 1)) {
+            throw new IllegalArgumentException("Thresholds should be ascending fractions between 0 and 1, but were: "
+                    + reducedDepthThreshold + ", " + noNewStepsThreshold + " and " + baseOnlyThreshold);
+        }
+        this.navigationStackEnricher = navigationStackEnricher;
+        this.thresholds = new double[] {reducedDepthThreshold, noNewStepsThreshold, baseOnlyThreshold};
+    }
+
+    /**
+     * Sets the interval at which the used fraction of the heap is checked. Defaults to {@value
+     * #DEFAULT_CHECK_INTERVAL_MILLIS} milliseconds. Takes effect on the next {@link #start()}.
+     *
+     * @param checkIntervalMillis the check interval in milliseconds
+     * @throws IllegalArgumentException in case {@code checkIntervalMillis} is not positive
+     */
+    public void setCheckIntervalMillis(long checkIntervalMillis) {
+        if (checkIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Check interval should be positive, but was: " + checkIntervalMillis);
+        }
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Starts monitoring the heap memory pools. Does nothing in case the monitor is already started.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0) {
+                previousThresholds.put(pool, pool.getCollectionUsageThreshold());
+                pool.setCollectionUsageThreshold((long) (max * thresholds[0]));
+            }
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "navigation-memory-pressure-monitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops monitoring the heap memory pools, restores their previous collection usage thresholds, and restores the
+     * navigational state to {@link DegradationLevel#NORMAL}.
+     */
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+        } catch (ListenerNotFoundException e) {
+            // not registered, so nothing to remove
+        }
+        for (Map.Entry<MemoryPoolMXBean, Long> entry : previousThresholds.entrySet()) {
+            entry.getKey().setCollectionUsageThreshold(entry.getValue());
+        }
+        previousThresholds.clear();
+        navigationStackEnricher.setDegradationLevel(DegradationLevel.NORMAL);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        start();
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            check();
+        }
+    }
+
+    /**
+     * Checks the fraction of the heap memory pools that is used after their last garbage collection and updates the
+     * degradation level accordingly.
+     *
+     * @return the updated degradation level
+     */
+    public DegradationLevel check() {
+        double usedFraction = 0;
+        synchronized (this) {
+            for (MemoryPoolMXBean pool : previousThresholds.keySet()) {
+                MemoryUsage usage = pool.getCollectionUsage();
+                if (usage != null && usage.getMax() > 0) {
+                    usedFraction = Math.max(usedFraction, (double) usage.getUsed() / usage.getMax());
+                }
+            }
+        }
+        return update(usedFraction);
+    }
+
+    /**
+     * Updates the degradation level for the given used fraction of the heap. The level is raised as soon as the
+     * fraction reaches its threshold, but only lowered once the fraction is below the threshold by a margin.
+     */
+    DegradationLevel update(double usedFraction) {
+        DegradationLevel current = navigationStackEnricher.getDegradationLevel();
+        DegradationLevel level = levelFor(usedFraction);
+        if (level.compareTo(current) < 0) {
+            level = levelFor(usedFraction + RECOVERY_MARGIN);
+            if (level.compareTo(current) > 0) {
+                level = current;
+            }
+        }
+        if (level != current) {
+            navigationStackEnricher.setDegradationLevel(level);
+        }
+        return level;
+    }
+
+    private DegradationLevel levelFor(double usedFraction) {
+        DegradationLevel level = DegradationLevel.NORMAL;
+        for (int i = 0; i < thresholds.length && usedFraction >= thresholds[i]; i++) {
+            level = DegradationLevel.values()[i + 1];
+        }
+        return level;
+    }
+}
@@ -1,38 +1,396 @@
 package nl.trifork.spring.navigation.stack;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * The stack of all navigation points accessed, maintained by the {@link NavigationStackEnricher}.
+ * <p/>
+ * The state of the stack is an immutable {@link Snapshot}, which is replaced by compare-and-swap on every
+ * modification. Concurrent requests of the same session, e.g. from several tabs or prefetches, therefore each apply
+ * their complete visit atomically to the latest state, without locking. Reads that need several values should take a
+ * {@link #snapshot()} to see them consistently.
+ * <p/>
+ * A snapshot points to the base {@link StackNode} and to the top node of the steps on top of it, which form an
+ * immutable, hash-consed linked list, so stacks of different sessions that share a common prefix share its nodes.
+ * Stacks deeper than {@value #INDEXED_DEPTH} navigation points also keep a {@link StackIndex} of their steps, which
+ * finds an uri, or the node at a given level, in constant time; shallower stacks walk their nodes instead.
+ * <p/>
+ * The stack is bounded to a maximum depth. The base navigation point is never evicted; once the maximum depth is
+ * reached, the oldest step on top of it is evicted for every step added. Steps are numbered by their position, and a
+ * snapshot only keeps the positions of its top and bottom step, so eviction merely moves the bottom position instead
+ * of relinking the nodes above it. To let the evicted nodes be collected, the steps are linked in segments of at most
+ * the maximum depth minus one nodes: adding a step to a full segment starts a new one, and the segment below it is
+ * dropped once all of its steps are evicted. A snapshot therefore holds at most two segments, and every added step,
+ * evicting or not, allocates a single node; removing steps, trimming and rebasing allocate none.
+ * <p/>
+ * Nodes refer to their uris by id, which the {@link UriDictionary} of the stack resolves, so each distinct uri is kept
+ * once for all stacks. Uris are only resolved to strings when requested.
+ * <p/>
+ * Besides its own navigation points, a {@link NavigationStack} may hold a bounded number of window stacks, one per
+ * browser window or tab, so that parallel tabs of the same session do not corrupt each others back targets. A window
+ * stack starts as a copy of the state of this stack, which costs nothing as that state is immutable. Once the maximum
+ * number of windows is reached, the least recently used window stack is discarded for every new one.
+ * <p/>
+ * A {@link NavigationStack} is serialized in the compact binary form of the {@link NavigationStackCodec}.
  *
  * @author Quinten Krijger
  */
-class NavigationStack {
+class NavigationStack implements Serializable {
 
-    private List<String> navigationSteps = new ArrayList<>();
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Estimated number of bytes a window stack takes, excluding its nodes.
+     */
+    private static final int ESTIMATED_WINDOW_SIZE = 96;
+
+    /**
+     * The depth beyond which a stack keeps an index of its steps.
+     */
+    static final int INDEXED_DEPTH = 8;
+
+    private static final AtomicReferenceFieldUpdater<NavigationStack, Snapshot> SNAPSHOT =
+            AtomicReferenceFieldUpdater.newUpdater(NavigationStack.class, Snapshot.class, "snapshot");
+
+    /**
+     * The outcome of a visit to a step page.
+     */
+    enum StepVisit {
+
+        /**
+         * An earlier navigation point was visited, so the navigation points on top of it were removed.
+         */
+        BACK,
+
+        /**
+         * The last navigation point was visited again, which does not modify the stack.
+         */
+        REFRESH,
+
+        /**
+         * A new navigation point was added.
+         */
+        FORWARD,
+
+        /**
+         * A new navigation point was added, for which the oldest step had to be evicted.
+         */
+        FORWARD_EVICTING,
+
+        /**
+         * A new navigation point was visited, but not added as adding steps was not allowed.
+         */
+        IGNORED
+
+    }
+
+    private final UriDictionary uriDictionary;
+    private final int maxDepth;
+    private volatile Snapshot snapshot;
+    private volatile LinkedHashMap<String, NavigationStack> windows;
+    private volatile int retiredWindowModificationCount;
 
     /**
      * Creates a new {@link NavigationStack} and initializes it with the given uri as a first 'visited' navigation
      * point.
      *
+     * @param uriDictionary the dictionary that interned the uris, which also holds the nodes of the stack
      * @param baseUri the initial uri in the {@link NavigationStack}
+     * @param maxDepth the maximum number of navigation points in the {@link NavigationStack}, including the base
+     *                 navigation point
+     * @throws IllegalArgumentException in case {@code maxDepth} is smaller than 2
+     */
+    public NavigationStack(UriDictionary uriDictionary, NavigationUri baseUri, int maxDepth) {
+        if (maxDepth < 2) {
+            throw new IllegalArgumentException("Max depth should be at least 2, but was: " + maxDepth);
+        }
+        this.uriDictionary = uriDictionary;
+        this.maxDepth = maxDepth;
+        this.snapshot = Snapshot.based(uriDictionary, uriDictionary.node(null, baseUri), 0, 0);
+    }
+
+    private NavigationStack(Snapshot snapshot, int maxDepth) {
+        this.uriDictionary = snapshot.uriDictionary;
+        this.maxDepth = maxDepth;
+        this.snapshot = snapshot.withVersion(0);
+    }
+
+    /**
+     * Restores a {@link NavigationStack} containing the given uris.
+     *
+     * @param uriDictionary the dictionary that interned the uris
+     * @param uris the uris in the {@link NavigationStack}, starting with the base uri
+     * @param maxDepth the maximum number of navigation points in the {@link NavigationStack}
+     * @param evictionCount the number of steps evicted from the {@link NavigationStack} so far
+     * @return the restored {@link NavigationStack}
+     * @throws IllegalArgumentException in case there are no uris, or more than {@code maxDepth}
+     */
+    static NavigationStack restore(UriDictionary uriDictionary, NavigationUri[] uris, int maxDepth,
+                                   int evictionCount) {
+        if (uris.length == 0 || uris.length > maxDepth) {
+            throw new IllegalArgumentException("Expected between 1 and " + maxDepth + " uris, but got: "
+                    + uris.length);
+        }
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uris[0], maxDepth);
+        StackNode top = null;
+        for (int i = 1; i < uris.length; i++) {
+            top = uriDictionary.node(top, uris[i]);
+        }
+        StackNode base = navigationStack.snapshot.base;
+        navigationStack.snapshot = new Snapshot(uriDictionary, base, top, null, uris.length - 1, 1, evictionCount, 0,
+                null).indexed();
+        return navigationStack;
+    }
+
+    /**
+     * Compacts this {@link NavigationStack} to its base and last navigation point, and discards its window stacks. The
+     * nodes that are dropped hold on to the uris, which may then be evicted from the {@link UriDictionary}, but are
+     * only reclaimed once no other stack shares them.
+     *
+     * @return the estimated number of bytes reclaimed
+     */
+    public long compact() {
+        Snapshot current;
+        Snapshot compacted;
+        do {
+            current = snapshot;
+            compacted = current.trim(2).relinked();
+        } while (compacted != current && !compareAndSet(current, compacted));
+        long reclaimed = (long) (current.getNodeCount() - compacted.getNodeCount()) * StackNode.ESTIMATED_SIZE
+                + (current.index == null ? 0 : current.index.estimateSize());
+        synchronized (this) {
+            if (windows != null) {
+                for (NavigationStack window : windows.values()) {
+                    reclaimed += window.estimateSize();
+                    retiredWindowModificationCount += window.getModificationCount() + 1;
+                }
+                windows = null;
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Estimates the heap retained by this {@link NavigationStack} and its window stacks, counting the nodes that are
+     * shared with other stacks as well.
+     *
+     * @return the estimated retained size in bytes
+     */
+    public long estimateSize() {
+        Snapshot current = snapshot;
+        long size = ESTIMATED_WINDOW_SIZE + (long) current.getNodeCount() * StackNode.ESTIMATED_SIZE
+                + (current.index == null ? 0 : current.index.estimateSize());
+        synchronized (this) {
+            if (windows != null) {
+                for (NavigationStack window : windows.values()) {
+                    size += window.estimateSize();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the stack of the window with the given id, creating it as a copy of this stack if it does not exist yet. In
+     * case this stack already holds {@code maxWindows} window stacks, the least recently used one is discarded.
+     *
+     * @param windowId the id of the browser window or tab
+     * @param maxWindows the maximum number of window stacks
+     * @return the stack of the window
+     */
+    public synchronized NavigationStack getWindow(String windowId, int maxWindows) {
+        if (windows == null) {
+            windows = new LinkedHashMap<>(4, 0.75f, true);
+        }
+        NavigationStack window = windows.get(windowId);
+        if (window == null) {
+            window = new NavigationStack(snapshot, maxDepth);
+            windows.put(windowId, window);
+            retiredWindowModificationCount++;
+            Iterator<NavigationStack> eldest = windows.values().iterator();
+            while (windows.size() > maxWindows) {
+                retiredWindowModificationCount += eldest.next().getModificationCount() + 1;
+                eldest.remove();
+            }
+        }
+        return window;
+    }
+
+    /**
+     * Get the stack of the window with the given id, if it exists.
+     *
+     * @param windowId the id of the browser window or tab
+     * @return the stack of the window, or {@code null} if there is none
+     */
+    public synchronized NavigationStack findWindow(String windowId) {
+        return windows == null ? null : windows.get(windowId);
+    }
+
+    /**
+     * Get the number of window stacks this {@link NavigationStack} holds.
+     *
+     * @return the number of window stacks
      */
-    public NavigationStack(String baseUri) {
-        navigationSteps.add(baseUri);
+    public synchronized int getWindowCount() {
+        return windows == null ? 0 : windows.size();
+    }
+
+    /**
+     * Get the window stacks, from the least to the most recently used one.
+     *
+     * @return a copy of the window stacks by window id
+     */
+    synchronized Map<String, NavigationStack> getWindows() {
+        return windows == null ? new LinkedHashMap<String, NavigationStack>()
+                : new LinkedHashMap<String, NavigationStack>(windows);
+    }
+
+    /**
+     * Restores the stack of the window with the given id.
+     */
+    synchronized void restoreWindow(String windowId, NavigationStack window) {
+        if (windows == null) {
+            windows = new LinkedHashMap<>(4, 0.75f, true);
+        }
+        windows.put(windowId, window);
+    }
+
+    /**
+     * Get the current state of this {@link NavigationStack}.
+     *
+     * @return the current, immutable state
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Atomically applies a visit to a step page with the given uri: visiting any earlier navigation point removes all
+     * navigation points on top of it (a 'back-action', possibly of several levels), visiting the last one again does
+     * nothing (a 'refresh-action') and visiting any other uri adds it as a new step. Cyclic navigation therefore does
+     * not grow the stack.
+     *
+     * @param uri the uri of the visited step page
+     * @return the outcome of the visit
+     */
+    public StepVisit visitStep(NavigationUri uri) {
+        return visitStep(uri, maxDepth, true);
+    }
+
+    /**
+     * Atomically applies a visit to a step page with the given uri, like {@link #visitStep(NavigationUri)}, but within
+     * the given maximum depth, to which the stack is trimmed first if needed, and optionally without adding new steps.
+     * This allows to limit the navigational state, e.g. under memory pressure.
+     *
+     * @param uri the uri of the visited step page
+     * @param maxDepth the maximum depth, at least 2 and at most {@link #getMaxDepth()}
+     * @param forward whether an uri that is not on the stack is added as a new step
+     * @return the outcome of the visit
+     * @throws IllegalArgumentException in case {@code maxDepth} is out of range
+     */
+    public StepVisit visitStep(NavigationUri uri, int maxDepth, boolean forward) {
+        if (maxDepth < 2 || maxDepth > this.maxDepth) {
+            throw new IllegalArgumentException("Max depth should be between 2 and " + this.maxDepth + ", but was: "
+                    + maxDepth);
+        }
+        uri = current(uri);
+        while (true) {
+            Snapshot current = snapshot;
+            Snapshot trimmed = current.trim(maxDepth);
+            int levels = trimmed.levelsTo(uri.getId());
+            if (levels == 0) {
+                if (trimmed == current || compareAndSet(current, trimmed)) {
+                    return StepVisit.REFRESH;
+                }
+            } else if (levels > 0) {
+                if (compareAndSet(current, trimmed.back(levels))) {
+                    return StepVisit.BACK;
+                }
+            } else if (!forward) {
+                if (trimmed == current || compareAndSet(current, trimmed)) {
+                    return StepVisit.IGNORED;
+                }
+            } else {
+                boolean evicting = trimmed.getDepth() >= maxDepth;
+                if (compareAndSet(current, trimmed.push(uri, maxDepth, this.maxDepth - 1))) {
+                    return evicting ? StepVisit.FORWARD_EVICTING : StepVisit.FORWARD;
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the oldest steps on top of the base navigation point until this {@link NavigationStack} is no deeper than
+     * the given depth.
+     *
+     * @param depth the maximum depth to keep, at least 1
+     * @return whether the {@link NavigationStack} was modified
+     * @throws IllegalArgumentException in case {@code depth} is smaller than 1
+     */
+    public boolean trim(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth should be at least 1, but was: " + depth);
+        }
+        Snapshot current;
+        Snapshot trimmed;
+        do {
+            current = snapshot;
+            trimmed = current.trim(depth);
+            if (trimmed == current) {
+                return false;
+            }
+        } while (!compareAndSet(current, trimmed));
+        return true;
+    }
+
+    /**
+     * Get a copy of this {@link NavigationStack} and its window stacks, in which the oldest steps on top of the base
+     * navigation point are evicted until none is deeper than the given depth. This stack is left untouched.
+     *
+     * @param depth the maximum depth to keep, at least 1
+     * @return the trimmed copy
+     * @throws IllegalArgumentException in case {@code depth} is smaller than 1
+     */
+    public NavigationStack trimmedCopy(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth should be at least 1, but was: " + depth);
+        }
+        NavigationStack copy = new NavigationStack(snapshot.trim(depth), maxDepth);
+        for (Map.Entry<String, NavigationStack> window : getWindows().entrySet()) {
+            copy.restoreWindow(window.getKey(), window.getValue().trimmedCopy(depth));
+        }
+        return copy;
+    }
+
+    /**
+     * Get the depth of the deepest of this {@link NavigationStack} and its window stacks.
+     *
+     * @return the maximum depth of this stack and its window stacks
+     */
+    public int getDeepestDepth() {
+        int depth = getDepth();
+        for (NavigationStack window : getWindows().values()) {
+            depth = Math.max(depth, window.getDepth());
+        }
+        return depth;
     }
 
     /**
      * Check whether given request uri equals the previous navigation points uri. Returns {@literal false} in case such
      * no previous request uri exists (which is the case if this {@link NavigationStack} has been rebased, see {@link
-     * NavigationStack#rebase(String)}).
+     * NavigationStack#rebase(NavigationUri)}).
      *
      * @param uri the uri to check against
      * @return whether the supplied uri equals that of the previous navigation point
      */
-    public boolean equalsFormerRequestUri(String uri) {
-        int navSize = navigationSteps.size();
-        return navSize > 1 && uri.equals(navigationSteps.get(navSize - 2));
+    public boolean equalsFormerRequestUri(NavigationUri uri) {
+        return snapshot.equalsFormerRequestUri(uri);
     }
 
     /**
@@ -41,37 +399,82 @@ class NavigationStack {
      * @param uri the uri to check against
      * @return whether the supplied uri equals that of the last navigation point
      */
-    public boolean equalsLastRequestUri(String uri) {
-        return uri.equals(navigationSteps.get(navigationSteps.size() - 1));
+    public boolean equalsLastRequestUri(NavigationUri uri) {
+        return snapshot.equalsLastRequestUri(uri);
+    }
+
+    /**
+     * Check whether the request uri with the given path and query string equals the previous navigation points uri,
+     * without building the request uri.
+     *
+     * @param path the path of the request uri
+     * @param query the query string of the request uri, or {@code null} if it has none
+     * @return whether the request uri equals that of the previous navigation point
+     * @see NavigationStack#equalsFormerRequestUri(NavigationUri)
+     */
+    public boolean equalsFormerRequestUri(String path, String query) {
+        return snapshot.equalsFormerRequestUri(path, query);
     }
 
     /**
-     * Removes the last navigation point from the stack. Can be used e.g. in a 'back-action'.
+     * Check whether the request uri with the given path and query string equals the last navigation points uri,
+     * without building the request uri.
+     *
+     * @param path the path of the request uri
+     * @param query the query string of the request uri, or {@code null} if it has none
+     * @return whether the request uri equals that of the last navigation point
+     */
+    public boolean equalsLastRequestUri(String path, String query) {
+        return snapshot.equalsLastRequestUri(path, query);
+    }
+
+    /**
+     * Removes the last navigation point from the stack. Can be used e.g. in a 'back-action'. The base navigation point
+     * is never removed.
      */
     public void removeLastStep() {
-        int navSize = navigationSteps.size();
-        if (navSize > 1) {
-            navigationSteps.remove(navSize);
-        }
+        Snapshot current;
+        do {
+            current = snapshot;
+            if (current.getDepth() == 1) {
+                return;
+            }
+        } while (!compareAndSet(current, current.back(1)));
     }
 
     /**
-     * Resets this entire {@link NavigationStack} to contain only the newly supplied request uri.
+     * Resets this entire {@link NavigationStack} to contain only the newly supplied request uri. Does not modify the
+     * {@link NavigationStack} in case it already contains only that uri.
      *
      * @param uri the uri that will the the new sole entry in the {@link NavigationStack}
+     * @return whether the {@link NavigationStack} was modified
      */
-    public void rebase(String uri) {
-        navigationSteps = new ArrayList<>();
-        navigationSteps.add(uri);
+    public boolean rebase(NavigationUri uri) {
+        uri = current(uri);
+        Snapshot current;
+        do {
+            current = snapshot;
+            if (current.getDepth() == 1 && current.base.getUriId() == uri.getId()) {
+                return false;
+            }
+        } while (!compareAndSet(current, current.rebase(uri)));
+        return true;
     }
 
     /**
-     * Add the supplied uri to the {@link NavigationStack}.
+     * Add the supplied uri to the {@link NavigationStack}. In case the maximum depth has been reached, the oldest step
+     * on top of the base navigation point is evicted.
      *
      * @param uri the uri to add to the {@link NavigationStack}
+     * @return whether a step had to be evicted to make room for the new one
      */
-    public void addStep(String uri) {
-        navigationSteps.add(uri);
+    public boolean addStep(NavigationUri uri) {
+        uri = current(uri);
+        Snapshot current;
+        do {
+            current = snapshot;
+        } while (!compareAndSet(current, current.push(uri, maxDepth, maxDepth - 1)));
+        return current.getDepth() >= maxDepth;
     }
 
     /**
@@ -80,7 +483,7 @@ class NavigationStack {
      * @return the uri of the last navigation point from this {@link NavigationStack}
      */
     public String getLastNavigationPointUri() {
-        return navigationSteps.get(navigationSteps.size() - 1);
+        return snapshot.getLastNavigationPointUri();
     }
 
     /**
@@ -91,12 +494,20 @@ class NavigationStack {
      * single one exists
      */
     public String getPreviousNavigationPointUri() {
-        int navSize = navigationSteps.size();
-        if (navSize > 1) {
-            return navigationSteps.get(navSize - 2);
-        } else {
-            return getLastNavigationPointUri();
-        }
+        return snapshot.getPreviousNavigationPointUri();
+    }
+
+    /**
+     * Get the uri of the navigation point the given number of levels below the last one, or the base navigation point
+     * in case there are fewer levels. Zero levels back gives the last navigation point, a single level the previous
+     * one.
+     *
+     * @param levels the number of levels to go back
+     * @return the uri of the navigation point the given number of levels back
+     * @throws IllegalArgumentException in case {@code levels} is negative
+     */
+    public String getNavigationPointUri(int levels) {
+        return snapshot.getNavigationPointUri(levels);
     }
 
     /**
@@ -105,6 +516,395 @@ class NavigationStack {
      * @return the uri of the first navigation point from this {@link NavigationStack}
      */
     public String getBaseNavigationPointUri() {
-        return navigationSteps.get(0);
+        return snapshot.getBaseNavigationPointUri();
+    }
+
+    /**
+     * Get the number of navigation points in this {@link NavigationStack}, including the base navigation point.
+     *
+     * @return the number of navigation points in this {@link NavigationStack}
+     */
+    public int getDepth() {
+        return snapshot.getDepth();
+    }
+
+    /**
+     * Get the maximum number of navigation points in this {@link NavigationStack}, including the base navigation point.
+     *
+     * @return the maximum depth of this {@link NavigationStack}
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Get the number of steps that have been evicted from this {@link NavigationStack} because its maximum depth was
+     * reached.
+     *
+     * @return the number of evicted steps
+     */
+    public int getEvictionCount() {
+        return snapshot.getEvictionCount();
+    }
+
+    /**
+     * Get the number of times this {@link NavigationStack} has been modified, which allows to detect whether it needs
+     * to be written back to the session.
+     *
+     * @return the number of modifications of this {@link NavigationStack}, including its window stacks
+     */
+    public int getModificationCount() {
+        if (windows == null) {
+            return snapshot.version + retiredWindowModificationCount;
+        }
+        synchronized (this) {
+            int modificationCount = snapshot.version + retiredWindowModificationCount;
+            if (windows != null) {
+                for (NavigationStack window : windows.values()) {
+                    modificationCount += window.getModificationCount();
+                }
+            }
+            return modificationCount;
+        }
+    }
+
+    /**
+     * Get the dictionary that interned the uris of this {@link NavigationStack}.
+     *
+     * @return the dictionary of this {@link NavigationStack}
+     */
+    UriDictionary getUriDictionary() {
+        return uriDictionary;
+    }
+
+    /**
+     * @return the node of the last navigation point
+     */
+    StackNode getTop() {
+        Snapshot current = snapshot;
+        return current.top != null ? current.top : current.base;
+    }
+
+    /**
+     * @return the given uri, or the uri that replaced it in the dictionary in case it has been evicted since it was
+     * interned, so that uris can be compared by id
+     */
+    private NavigationUri current(NavigationUri uri) {
+        if (uriDictionary.resolve(uri.getId()) == uri) {
+            return uri;
+        }
+        return uriDictionary.intern(uri.getPath(), uri.getQuery());
+    }
+
+    private boolean compareAndSet(Snapshot expected, Snapshot updated) {
+        return SNAPSHOT.compareAndSet(this, expected, updated);
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(NavigationStackCodec.WITHOUT_DICTIONARY.encode(this));
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("A NavigationStack is deserialized from its serialized form");
+    }
+
+    /**
+     * Immutable state of a {@link NavigationStack}.
+     * <p/>
+     * The steps on top of the base node are numbered by position. The visible steps are those from the bottom position
+     * up to and including the top position; the top node is at the top position, and the nodes below it at the
+     * positions below. The top node belongs to the upper segment, whose root has no parent. Visible steps below the
+     * upper segment belong to the lower segment, which is {@code null} in case there are none. Nodes below the bottom
+     * position are no longer visible, and are only retained until their segment is dropped.
+     * <p/>
+     * The index, if any, holds at least the steps from the bottom up to the top position.
+     */
+    static final class Snapshot {
+
+        private final UriDictionary uriDictionary;
+        private final StackNode base;
+        private final StackNode top;
+        private final StackNode lower;
+        private final int topPosition;
+        private final int bottomPosition;
+        private final int evictionCount;
+        private final int version;
+        private final StackIndex index;
+
+        private Snapshot(UriDictionary uriDictionary, StackNode base, StackNode top, StackNode lower, int topPosition,
+                         int bottomPosition, int evictionCount, int version, StackIndex index) {
+            this.uriDictionary = uriDictionary;
+            this.base = base;
+            this.top = top;
+            this.lower = lower;
+            this.topPosition = topPosition;
+            this.bottomPosition = bottomPosition;
+            this.evictionCount = evictionCount;
+            this.version = version;
+            this.index = index;
+        }
+
+        /**
+         * @return a snapshot with only the given base node
+         */
+        private static Snapshot based(UriDictionary uriDictionary, StackNode base, int evictionCount, int version) {
+            return new Snapshot(uriDictionary, base, null, null, 0, 1, evictionCount, version, null);
+        }
+
+        public boolean equalsFormerRequestUri(NavigationUri uri) {
+            return top != null && uri.sameAs(uriOf(below(1)));
+        }
+
+        public boolean equalsLastRequestUri(NavigationUri uri) {
+            return uri.sameAs(uriOf(below(0)));
+        }
+
+        public boolean equalsFormerRequestUri(String path, String query) {
+            return top != null && uriOf(below(1)).matches(path, query);
+        }
+
+        public boolean equalsLastRequestUri(String path, String query) {
+            return uriOf(below(0)).matches(path, query);
+        }
+
+        public String getLastNavigationPointUri() {
+            return uriOf(below(0)).getUri();
+        }
+
+        NavigationUri getLastNavigationUri() {
+            return uriOf(below(0));
+        }
+
+        public String getPreviousNavigationPointUri() {
+            return uriOf(below(1)).getUri();
+        }
+
+        public String getNavigationPointUri(int levels) {
+            if (levels < 0) {
+                throw new IllegalArgumentException("Levels should not be negative, but was: " + levels);
+            }
+            return uriOf(below(levels)).getUri();
+        }
+
+        public String getBaseNavigationPointUri() {
+            return uriOf(base).getUri();
+        }
+
+        public int getDepth() {
+            return topPosition - bottomPosition + 2;
+        }
+
+        public int getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * Get all uris in this snapshot.
+         *
+         * @return the uris in this snapshot, starting with the base uri
+         */
+        NavigationUri[] getUris() {
+            NavigationUri[] uris = new NavigationUri[getDepth()];
+            uris[0] = uriOf(base);
+            StackNode node = top;
+            StackNode segmentBelow = lower;
+            for (int i = uris.length - 1; i > 0; i--) {
+                uris[i] = uriOf(node);
+                if (node.getParent() != null) {
+                    node = node.getParent();
+                } else {
+                    node = segmentBelow;
+                    segmentBelow = null;
+                }
+            }
+            return uris;
+        }
+
+        /**
+         * @return the number of nodes this snapshot retains, including those below the bottom position
+         */
+        int getNodeCount() {
+            return 1 + (top == null ? 0 : top.getDepth()) + (lower == null ? 0 : lower.getDepth());
+        }
+
+        /**
+         * @return the number of levels below the top of the topmost navigation point with the uri with the given id,
+         * or -1 in case there is none
+         */
+        private int levelsTo(int uriId) {
+            int steps = getDepth() - 1;
+            if (index != null) {
+                int position = index.find(uriId, bottomPosition, topPosition);
+                if (position >= 0) {
+                    return topPosition - position;
+                }
+                return base.getUriId() == uriId ? steps : -1;
+            }
+            StackNode node = top;
+            StackNode segmentBelow = lower;
+            for (int levels = 0; levels < steps; levels++) {
+                if (node.getUriId() == uriId) {
+                    return levels;
+                }
+                if (node.getParent() != null) {
+                    node = node.getParent();
+                } else {
+                    node = segmentBelow;
+                    segmentBelow = null;
+                }
+            }
+            return base.getUriId() == uriId ? steps : -1;
+        }
+
+        /**
+         * @return the node the given number of levels below the top, or the base node in case there are fewer levels
+         */
+        private StackNode below(int levels) {
+            if (levels >= getDepth() - 1) {
+                return base;
+            }
+            if (index != null) {
+                return index.nodeAt(topPosition - levels);
+            }
+            int upperLevels = top.getDepth();
+            return levels < upperLevels ? top.below(levels) : lower.below(levels - upperLevels);
+        }
+
+        private NavigationUri uriOf(StackNode node) {
+            return uriDictionary.resolve(node.getUriId());
+        }
+
+        private Snapshot withVersion(int version) {
+            return new Snapshot(uriDictionary, base, top, lower, topPosition, bottomPosition, evictionCount, version,
+                    index);
+        }
+
+        /**
+         * @return a copy without the given number of levels on top
+         */
+        private Snapshot back(int levels) {
+            if (levels >= getDepth() - 1) {
+                return based(uriDictionary, base, evictionCount, version + 1);
+            }
+            int upperLevels = top.getDepth();
+            StackNode newLower = levels < upperLevels ? lower : null;
+            return new Snapshot(uriDictionary, base, below(levels), newLower, topPosition - levels, bottomPosition,
+                    evictionCount, version + 1, index);
+        }
+
+        /**
+         * @return this snapshot if it is no deeper than the given depth, or a copy in which the oldest steps on top of
+         * the base node have been evicted to make it so
+         */
+        private Snapshot trim(int depth) {
+            int evicted = getDepth() - depth;
+            if (evicted <= 0) {
+                return this;
+            }
+            int bottom = bottomPosition + evicted;
+            if (bottom > topPosition) {
+                return new Snapshot(uriDictionary, base, null, null, topPosition, bottom, evictionCount + evicted,
+                        version + 1, null);
+            }
+            StackNode newLower = bottom < topPosition - top.getDepth() + 1 ? lower : null;
+            return new Snapshot(uriDictionary, base, top, newLower, topPosition, bottom, evictionCount + evicted,
+                    version + 1, index);
+        }
+
+        /**
+         * @return this snapshot if it retains no invisible nodes, or a copy in which the visible steps are relinked
+         * into a single segment, so that the others can be collected
+         */
+        private Snapshot relinked() {
+            if (getNodeCount() == getDepth()) {
+                return this;
+            }
+            NavigationUri[] uris = getUris();
+            StackNode relinked = null;
+            for (int i = 1; i < uris.length; i++) {
+                relinked = uriDictionary.node(relinked, uris[i]);
+            }
+            return new Snapshot(uriDictionary, base, relinked, null, uris.length - 1, 1, evictionCount, version + 1,
+                    null);
+        }
+
+        private Snapshot rebase(NavigationUri uri) {
+            return based(uriDictionary, uriDictionary.node(null, uri), evictionCount, version + 1);
+        }
+
+        /**
+         * @return a copy with the given uri on top, in which the oldest step has been evicted in case this snapshot
+         * is already at the given maximum depth
+         */
+        private Snapshot push(NavigationUri uri, int maxDepth, int segmentSize) {
+            int evicted = getDepth() >= maxDepth ? 1 : 0;
+            int bottom = bottomPosition + evicted;
+            StackNode newTop;
+            StackNode newLower;
+            if (top == null || top.getDepth() >= segmentSize) {
+                newTop = uriDictionary.node(null, uri);
+                newLower = top;
+            } else {
+                newTop = uriDictionary.node(top, uri);
+                newLower = lower;
+            }
+            int position = topPosition + 1;
+            if (newLower != null && bottom >= position - newTop.getDepth() + 1) {
+                newLower = null;
+            }
+            StackIndex newIndex = index != null && index.append(position, newTop) ? index : null;
+            Snapshot pushed = new Snapshot(uriDictionary, base, newTop, newLower, position, bottom,
+                    evictionCount + evicted, version + 1, newIndex);
+            return newIndex != null ? pushed : pushed.indexed();
+        }
+
+        /**
+         * @return this snapshot if it is no deeper than {@link #INDEXED_DEPTH} or already indexed, or a copy with a new
+         * index of its steps
+         */
+        private Snapshot indexed() {
+            if (index != null || getDepth() <= INDEXED_DEPTH) {
+                return this;
+            }
+            StackNode[] nodes = new StackNode[getDepth() - 1];
+            StackNode node = top;
+            StackNode segmentBelow = lower;
+            for (int i = nodes.length - 1; i >= 0; i--) {
+                nodes[i] = node;
+                if (node.getParent() != null) {
+                    node = node.getParent();
+                } else {
+                    node = segmentBelow;
+                    segmentBelow = null;
+                }
+            }
+            StackIndex newIndex = StackIndex.of(nodes, bottomPosition);
+            return new Snapshot(uriDictionary, base, top, lower, topPosition, bottomPosition, evictionCount, version,
+                    newIndex);
+        }
+    }
+
+    /**
+     * Serialized form of a {@link NavigationStack}, holding its binary encoding.
+     */
+    private static final class SerializedForm implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] bytes;
+
+        private SerializedForm(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private Object readResolve() throws InvalidObjectException {
+            try {
+                return NavigationStackCodec.WITHOUT_DICTIONARY.decode(bytes);
+            } catch (IllegalArgumentException e) {
+                InvalidObjectException exception = new InvalidObjectException(e.getMessage());
+                exception.initCause(e);
+                throw exception;
+            }
+        }
     }
 }
@@ -0,0 +1,211 @@
+package nl.trifork.spring.navigation.stack;
+
+import nl.trifork.spring.navigation.NavigationalStateCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Compact binary codec for the {@link NavigationStack}.
+ * <p/>
+ * The encoding consists of a format version byte, followed by the maximum depth, the eviction count and the number of
+ * uris as unsigned varints, followed by the uris from the base uri upwards. As consecutive uris tend to share a
+ * prefix, each uri is encoded as the number of leading characters it shares with the uri below it and the UTF-8 bytes
+ * of the remainder, both preceded by a varint. These are followed by the number of window stacks, and for each the
+ * UTF-8 bytes of its window id preceded by their length, its eviction count and its uris.
+ * <p/>
+ * The maximum depth of a decoded stack is that of the encoding, but no more than the maximum depth of the codec, so
+ * that an encoding cannot raise the configured maximum; the oldest steps of deeper stacks are evicted when decoded.
+ * <p/>
+ * Dictionary ids are only valid within a single JVM and are therefore not part of the encoding; decoded uris are
+ * interned in the given {@link UriDictionary} instead, or in a dictionary of the decoded stack's own if there is none.
+ */
+class NavigationStackCodec implements NavigationalStateCodec<NavigationStack> {
+
+    /**
+     * Codec that decodes each stack into a {@link UriDictionary} of its own, for use where no shared dictionary is
+     * available, and keeps the maximum depth of the encoding.
+     */
+    static final NavigationStackCodec WITHOUT_DICTIONARY = new NavigationStackCodec(null, Integer.MAX_VALUE);
+
+    private static final byte FORMAT_VERSION = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final UriDictionary uriDictionary;
+    private final int maxDepth;
+
+    /**
+     * Creates a new {@link NavigationStackCodec}.
+     *
+     * @param uriDictionary the dictionary in which decoded uris are interned, or {@code null} to intern them in a
+     *                      dictionary per decoded stack
+     * @param maxDepth the maximum depth of decoded stacks
+     * @throws IllegalArgumentException in case {@code maxDepth} is smaller than 2
+     */
+    NavigationStackCodec(UriDictionary uriDictionary, int maxDepth) {
+        if (maxDepth < 2) {
+            throw new IllegalArgumentException("Max depth should be at least 2, but was: " + maxDepth);
+        }
+        this.uriDictionary = uriDictionary;
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public byte[] encode(NavigationStack navigationStack) {
+        NavigationStack.Snapshot snapshot = navigationStack.snapshot();
+        Map<String, NavigationStack> windows = navigationStack.getWindows();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + 32 * snapshot.getDepth() * (1 + windows.size()));
+        out.write(FORMAT_VERSION);
+        writeVarInt(out, navigationStack.getMaxDepth());
+        writeSnapshot(out, snapshot);
+        writeVarInt(out, windows.size());
+        for (Map.Entry<String, NavigationStack> window : windows.entrySet()) {
+            writeString(out, window.getKey());
+            writeSnapshot(out, window.getValue().snapshot());
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public NavigationStack decode(byte[] bytes) {
+        Reader in = new Reader(bytes);
+        int formatVersion = in.readByte();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported navigation stack format version: " + formatVersion);
+        }
+        int encodedMaxDepth = in.readVarInt();
+        int maxDepth = Math.min(encodedMaxDepth, this.maxDepth);
+        UriDictionary dictionary = uriDictionary != null ? uriDictionary : UriDictionary.forSingleStack();
+        NavigationStack navigationStack = readStack(in, dictionary, encodedMaxDepth, maxDepth);
+        int windowCount = in.readVarInt();
+        for (int i = 0; i < windowCount; i++) {
+            String windowId = in.readUtf8(in.readVarInt());
+            navigationStack.restoreWindow(windowId, readStack(in, dictionary, encodedMaxDepth, maxDepth));
+        }
+        if (in.hasRemaining()) {
+            throw new IllegalArgumentException("Unexpected trailing bytes in navigation stack encoding");
+        }
+        return navigationStack;
+    }
+
+    private static void writeSnapshot(ByteArrayOutputStream out, NavigationStack.Snapshot snapshot) {
+        NavigationUri[] uris = snapshot.getUris();
+        writeVarInt(out, snapshot.getEvictionCount());
+        writeVarInt(out, uris.length);
+        String previous = "";
+        for (NavigationUri navigationUri : uris) {
+            String uri = navigationUri.getUri();
+            int sharedPrefixLength = sharedPrefixLength(previous, uri);
+            writeVarInt(out, sharedPrefixLength);
+            writeString(out, uri.substring(sharedPrefixLength));
+            previous = uri;
+        }
+    }
+
+    /**
+     * Reads a stack of at most the encoded maximum depth, of which the oldest steps are evicted beyond the given
+     * maximum depth.
+     */
+    private static NavigationStack readStack(Reader in, UriDictionary dictionary, int encodedMaxDepth, int maxDepth) {
+        int evictionCount = in.readVarInt();
+        int depth = in.readVarInt();
+        if (depth > encodedMaxDepth) {
+            throw new IllegalArgumentException("Navigation stack depth " + depth + " exceeds max depth "
+                    + encodedMaxDepth);
+        }
+        if (depth > in.remaining() / 2) {
+            throw new IllegalArgumentException("Navigation stack depth " + depth + " exceeds encoding");
+        }
+        int evicted = Math.max(0, depth - maxDepth);
+        NavigationUri[] uris = new NavigationUri[depth - evicted];
+        String previous = "";
+        for (int i = 0; i < depth; i++) {
+            int sharedPrefixLength = in.readVarInt();
+            if (sharedPrefixLength > previous.length()) {
+                throw new IllegalArgumentException("Shared prefix exceeds previous uri");
+            }
+            String uri = previous.substring(0, sharedPrefixLength) + in.readUtf8(in.readVarInt());
+            if (i == 0 || i > evicted) {
+                uris[i == 0 ? 0 : i - evicted] = dictionary.intern(uri);
+            }
+            previous = uri;
+        }
+        return NavigationStack.restore(dictionary, uris, maxDepth, evictionCount + evicted);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static int sharedPrefixLength(String previous, String uri) {
+        int max = Math.min(previous.length(), uri.length());
+        int length = 0;
+        while (length < max && previous.charAt(length) == uri.charAt(length)) {
+            length++;
+        }
+        if (length > 0 && Character.isHighSurrogate(uri.charAt(length - 1))) {
+            length--;
+        }
+        return length;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private int readByte() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Unexpected end of navigation stack encoding");
+            }
+            return bytes[position++];
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new IllegalArgumentException("Negative varint in navigation stack encoding");
+                    }
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in navigation stack encoding");
+        }
+
+        private String readUtf8(int length) {
+            if (length > bytes.length - position) {
+                throw new IllegalArgumentException("Unexpected end of navigation stack encoding");
+            }
+            String value = new String(bytes, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        private boolean hasRemaining() {
+            return position < bytes.length;
+        }
+
+        private int remaining() {
+            return bytes.length - position;
+        }
+    }
+}
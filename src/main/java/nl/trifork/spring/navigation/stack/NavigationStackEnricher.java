@@ -1,12 +1,25 @@
 package nl.trifork.spring.navigation.stack;
 
+import nl.trifork.spring.navigation.ModificationTracking;
+import nl.trifork.spring.navigation.NavigationMetrics;
+import nl.trifork.spring.navigation.NavigationMetrics.Transition;
+import nl.trifork.spring.navigation.NavigationStateCompactor;
+import nl.trifork.spring.navigation.NavigationStateSizeEstimator;
 import nl.trifork.spring.navigation.NavigationPointType;
+import nl.trifork.spring.navigation.NavigationalStateCodec;
+import nl.trifork.spring.navigation.NavigationalStateCodecProvider;
+import nl.trifork.spring.navigation.NavigationalStateTrimmer;
+import nl.trifork.spring.navigation.QueryNormalization;
+import nl.trifork.spring.navigation.RequestAwareModelEnricher;
 import nl.trifork.spring.navigation.SimpleNavigationalStateEnricher;
+import nl.trifork.spring.navigation.events.NavigationEventStream;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.ui.ModelMap;
 import org.springframework.util.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Maintains the {@link NavigationStack} in the users session and makes it accessible for the application.
@@ -14,7 +27,33 @@ import javax.servlet.http.HttpServletRequest;
  * On a {@link NavigationPointType#BASE} page visit, the stack will be rebased to the new request uri and contain only a
  * single uri after.
  * <p/>
- * On a {@link NavigationPointType#STEP} page visit, the stack will be expanded with the new request uri.
+ * On a {@link NavigationPointType#STEP} page visit, the stack will be expanded with the new request uri. The stack is
+ * bounded to a maximum depth, beyond which the oldest step on top of the base uri is evicted.
+ * <p/>
+ * Concurrent requests of the same session each apply their visit atomically, without locking: the stack replaces its
+ * immutable state by compare-and-swap.
+ * <p/>
+ * The uris in the stacks of all sessions are interned in a single, bounded {@link UriDictionary}, so that common uris
+ * are kept in memory once. A stack that was deserialized into a dictionary of its own is adopted into the shared one on
+ * its next visit.
+ * <p/>
+ * Requests that identify their browser window or tab, by the {@value #DEFAULT_WINDOW_ID_HEADER_NAME} header or a
+ * configurable request parameter, navigate a stack of their own, so that parallel tabs do not corrupt each others
+ * back targets. A new window starts from the navigation of the session so far. The number of window stacks per
+ * session is bounded, beyond which the least recently used one is discarded. A window id parameter is part of the
+ * query string, so it should be ignored by the {@link QueryNormalization}. The model is enriched from the stack of the
+ * window of the request, see {@link RequestAwareModelEnricher}.
+ * <p/>
+ * Under memory pressure, the navigational state can be degraded step by step, see {@link DegradationLevel} and {@link
+ * MemoryPressureMonitor}. Degrading to {@link DegradationLevel#BASE_ONLY} trims the stack of a session and all of its
+ * window stacks on its next step visit.
+ * <p/>
+ * Transitions are recorded in the {@link NavigationMetrics} and, when one is registered, published to a {@link
+ * NavigationEventStream}, which passes them on to analytics off the request thread.
+ * <p/>
+ * The query string of request uris is normalized before these are compared and stored, see {@link QueryNormalization}.
+ * The rules declared by the navigation point take precedence over those set on this enricher, which by default leave
+ * the query string as it is.
  * <p/>
  * The model is enriched with the following attributes: <ul> <li>navigationCurrent: {@link String}, the uri of the last
  * navigation point</li> <li>navigationBack: {@link String}, the uri of the previous navigation point</li>
@@ -23,9 +62,74 @@ import javax.servlet.http.HttpServletRequest;
  * @author Quinten Krijger
  */
 @Component
-public class NavigationStackEnricher extends SimpleNavigationalStateEnricher<NavigationStack> {
+public class NavigationStackEnricher extends SimpleNavigationalStateEnricher<NavigationStack>
+        implements RequestAwareModelEnricher, ModificationTracking, NavigationalStateCodecProvider<NavigationStack>,
+        NavigationalStateTrimmer, NavigationStateCompactor, NavigationStateSizeEstimator {
+
+    /**
+     * The default maximum depth of the {@link NavigationStack}, including the base uri.
+     */
+    public static final int DEFAULT_MAX_DEPTH = 50;
+
+    /**
+     * The default maximum number of distinct uris that are interned.
+     */
+    public static final int DEFAULT_URI_DICTIONARY_CAPACITY = 10000;
+
+    /**
+     * The default name of the header that carries the window id.
+     */
+    public static final String DEFAULT_WINDOW_ID_HEADER_NAME = "X-Navigation-Window";
+
+    /**
+     * The default maximum number of window stacks per session.
+     */
+    public static final int DEFAULT_MAX_WINDOWS = 8;
+
+    /**
+     * The default maximum depth of the {@link NavigationStack} when degraded to {@link DegradationLevel#REDUCED_DEPTH}.
+     */
+    public static final int DEFAULT_REDUCED_MAX_DEPTH = 10;
+
+    /**
+     * The extent to which the navigational state is kept, from full to minimal.
+     */
+    public enum DegradationLevel {
+
+        /**
+         * Navigation stacks are maintained in full.
+         */
+        NORMAL,
+
+        /**
+         * Navigation stacks are trimmed to a reduced maximum depth on their next step visit.
+         */
+        REDUCED_DEPTH,
+
+        /**
+         * Like {@link #REDUCED_DEPTH}, but new steps are no longer added and no new window stacks are created. Visits
+         * to earlier steps still go back.
+         */
+        NO_NEW_STEPS,
+
+        /**
+         * Navigation stacks, including all window stacks of the session, are trimmed to their base uri on their next
+         * step visit, and only base page visits are tracked.
+         */
+        BASE_ONLY
+
+    }
 
     private final String defaultBaseUri;
+    private final int maxDepth;
+    private final UriDictionary uriDictionary;
+    private final NavigationStackCodec codec;
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final WindowStacks windowStacks = new WindowStacks();
+    private final DegradationPolicy degradationPolicy;
+    private NavigationMetrics navigationMetrics = NavigationMetrics.NONE;
+    private NavigationEventStream navigationEventStream;
+    private QueryNormalization queryNormalization = QueryNormalization.NONE;
 
     /**
      * Constructs a new {@link NavigationStackEnricher} and sets the {@code defaultBaseUri} to "/".
@@ -37,52 +141,341 @@ public class NavigationStackEnricher extends SimpleNavigationalStateEnricher<Nav
     }
 
     /**
-     * Constructs a new {@link NavigationStackEnricher} with the supplied {@code defaultBaseUri}.
+     * Constructs a new {@link NavigationStackEnricher} with the supplied {@code defaultBaseUri} and a maximum depth of
+     * {@value #DEFAULT_MAX_DEPTH}.
      *
      * @param defaultBaseUri the default base uri, which is used in case no registered base uri has yet been hit in the
      *                       current session
+     * @see NavigationStackEnricher#NavigationStackEnricher(String, int)
      */
     public NavigationStackEnricher(String defaultBaseUri) {
+        this(defaultBaseUri, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Constructs a new {@link NavigationStackEnricher} with the supplied {@code defaultBaseUri} and maximum depth, and
+     * an uri dictionary capacity of {@value #DEFAULT_URI_DICTIONARY_CAPACITY}.
+     *
+     * @param defaultBaseUri the default base uri, which is used in case no registered base uri has yet been hit in the
+     *                       current session
+     * @param maxDepth the maximum number of uris in the navigation stack, including the base uri
+     * @throws IllegalArgumentException in case {@code maxDepth} is smaller than 2
+     * @see NavigationStackEnricher#NavigationStackEnricher(String, int, int)
+     */
+    public NavigationStackEnricher(String defaultBaseUri, int maxDepth) {
+        this(defaultBaseUri, maxDepth, DEFAULT_URI_DICTIONARY_CAPACITY);
+    }
+
+    /**
+     * Constructs a new {@link NavigationStackEnricher} with the supplied {@code defaultBaseUri}, maximum depth and uri
+     * dictionary capacity.
+     *
+     * @param defaultBaseUri the default base uri, which is used in case no registered base uri has yet been hit in the
+     *                       current session
+     * @param maxDepth the maximum number of uris in the navigation stack, including the base uri
+     * @param uriDictionaryCapacity the number of distinct uris that are interned and shared between sessions, beyond
+     *                              which uris that are on no stack are evicted
+     * @throws IllegalArgumentException in case {@code maxDepth} is smaller than 2 or {@code uriDictionaryCapacity} is
+     *                                  negative
+     */
+    public NavigationStackEnricher(String defaultBaseUri, int maxDepth, int uriDictionaryCapacity) {
         super("navigation", NavigationStack.class);
+        if (maxDepth < 2) {
+            throw new IllegalArgumentException("Max depth should be at least 2, but was: " + maxDepth);
+        }
         this.defaultBaseUri = defaultBaseUri;
+        this.maxDepth = maxDepth;
+        this.uriDictionary = new UriDictionary(uriDictionaryCapacity);
+        this.codec = new NavigationStackCodec(uriDictionary, maxDepth);
+        this.degradationPolicy = new DegradationPolicy(maxDepth);
     }
 
     @Override
     public NavigationStack init() {
-        return new NavigationStack(defaultBaseUri);
+        return new NavigationStack(uriDictionary, uriDictionary.intern(defaultBaseUri), maxDepth);
     }
 
     @Override
     public NavigationStack updateOnBasePageVisit(Object attribute, HttpServletRequest request) {
-        NavigationStack navigationStack = assertNonNullNavigationStackAttribute(attribute);
-        String requestUri = getRequestUriIncludingParams(request);
+        NavigationStack navigation = adopt(assertNonNullNavigationStackAttribute(attribute));
+        NavigationStack navigationStack = DegradationPolicy.createsWindows(degradationPolicy.getLevel())
+                ? windowStacks.getWindow(navigation, request) : windowStacks.findWindow(navigation, request);
+        NavigationUri requestUri = getRequestUriIncludingParams(request);
+        NavigationUri fromUri = navigationStack.snapshot().getLastNavigationUri();
         navigationStack.rebase(requestUri);
-        return navigationStack;
+        recordTransition(Transition.REBASE, navigationStack, fromUri, requestUri);
+        return navigation;
     }
 
     @Override
     public NavigationStack updateOnStepPageVisit(Object attribute, HttpServletRequest request) {
-        NavigationStack navigationStack = assertNonNullNavigationStackAttribute(attribute);
-        String requestUri = getRequestUriIncludingParams(request);
-
-        boolean isBackAction = navigationStack.equalsFormerRequestUri(requestUri);
-        boolean isRefreshAction = navigationStack.equalsLastRequestUri(requestUri);
-        if (isBackAction) {
-            navigationStack.removeLastStep();
-        } else if (!isRefreshAction) {
-            navigationStack.addStep(requestUri);
+        NavigationStack navigation = adopt(assertNonNullNavigationStackAttribute(attribute));
+        DegradationLevel level = degradationPolicy.getLevel();
+        if (level == DegradationLevel.BASE_ONLY) {
+            degradationPolicy.trimToBase(navigation);
+            return navigation;
+        }
+        NavigationStack navigationStack = DegradationPolicy.createsWindows(level)
+                ? windowStacks.getWindow(navigation, request) : windowStacks.findWindow(navigation, request);
+        NavigationUri requestUri = getRequestUriIncludingParams(request);
+        NavigationUri fromUri = navigationStack.snapshot().getLastNavigationUri();
+        NavigationStack.StepVisit visit = degradationPolicy.visitStep(navigationStack, requestUri, level);
+
+        Transition transition;
+        switch (visit) {
+            case BACK:
+                transition = Transition.BACK;
+                break;
+            case REFRESH:
+                transition = Transition.REFRESH;
+                break;
+            case FORWARD_EVICTING:
+                evictionCount.incrementAndGet();
+                transition = Transition.FORWARD;
+                break;
+            case IGNORED:
+                return navigation;
+            default:
+                transition = Transition.FORWARD;
+                break;
+        }
+        recordTransition(transition, navigationStack, fromUri, requestUri);
+        return navigation;
+    }
+
+    private void recordTransition(Transition transition, NavigationStack navigationStack, NavigationUri fromUri,
+                                  NavigationUri requestUri) {
+        navigationMetrics.recordTransition(transition, navigationStack.getDepth(), requestUri.getId());
+        if (navigationEventStream != null) {
+            navigationEventStream.publish(uriDictionary, fromUri.getId(), requestUri.getId(), transition);
         }
-        return navigationStack;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation enriches the model from the stack of the session, not from that of a window.
+     */
     @Override
     public void postHandle(ModelMap modelMap, Object attribute) {
-        NavigationStack navigationStack = assertNonNullNavigationStackAttribute(attribute);
+        enrich(modelMap, assertNonNullNavigationStackAttribute(attribute));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation enriches the model from the stack of the window of the request, if any.
+     */
+    @Override
+    public void postHandle(ModelMap modelMap, Object attribute, HttpServletRequest request) {
+        enrich(modelMap, windowStacks.findWindow(assertNonNullNavigationStackAttribute(attribute), request));
+    }
+
+    private void enrich(ModelMap modelMap, NavigationStack navigation) {
+        NavigationStack.Snapshot navigationStack = navigation.snapshot();
         modelMap.addAttribute("navigationCurrent", navigationStack.getLastNavigationPointUri());
         modelMap.addAttribute("navigationBack", navigationStack.getPreviousNavigationPointUri());
         modelMap.addAttribute("navigationBase", navigationStack.getBaseNavigationPointUri());
     }
 
+    @Override
+    public long getModificationCount(Object attribute) {
+        if (attribute instanceof NavigationStack) {
+            return ((NavigationStack) attribute).getModificationCount();
+        }
+        return UNTRACKED;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation returns a compact binary codec, which interns decoded uris like visited ones.
+     */
+    @Override
+    public NavigationalStateCodec<NavigationStack> getCodec() {
+        return codec;
+    }
+
+    @Override
+    public int getTrimmableDepth(Object attribute) {
+        return attribute instanceof NavigationStack ? ((NavigationStack) attribute).getDeepestDepth() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation trims navigation stacks including their window stacks.
+     */
+    @Override
+    public NavigationStack trim(Object attribute, int depth) {
+        return assertNonNullNavigationStackAttribute(attribute).trimmedCopy(depth);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation compacts navigation stacks to their base and last uri, and discards their window stacks.
+     */
+    @Override
+    public long compact(String attributeName, Object attribute) {
+        if (!sessionAttributeName().equals(attributeName) || !(attribute instanceof NavigationStack)) {
+            return 0;
+        }
+        return ((NavigationStack) attribute).compact();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation estimates navigation stacks by their nodes, including those of their window stacks.
+     */
+    @Override
+    public long estimateSize(Object attribute) {
+        return attribute instanceof NavigationStack ? ((NavigationStack) attribute).estimateSize() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation returns the depth of the stack of the session, not counting its window stacks.
+     */
+    @Override
+    public int getDepth(Object attribute) {
+        return attribute instanceof NavigationStack ? ((NavigationStack) attribute).getDepth() : 0;
+    }
+
+    /**
+     * Sets the metrics in which the navigation stack transitions are recorded.
+     *
+     * @param navigationMetrics the navigation metrics
+     */
+    @Autowired(required = false)
+    public void setNavigationMetrics(NavigationMetrics navigationMetrics) {
+        this.navigationMetrics = navigationMetrics;
+    }
+
+    /**
+     * Sets the stream to which the navigation stack transitions are published.
+     *
+     * @param navigationEventStream the navigation event stream
+     */
+    @Autowired(required = false)
+    public void setNavigationEventStream(NavigationEventStream navigationEventStream) {
+        this.navigationEventStream = navigationEventStream;
+    }
+
+    /**
+     * Sets the query normalization rules of navigation points that do not declare any. Defaults to {@link
+     * QueryNormalization#NONE}.
+     *
+     * @param queryNormalization the default query normalization
+     */
+    public void setQueryNormalization(QueryNormalization queryNormalization) {
+        if (queryNormalization == null) {
+            throw new IllegalArgumentException("Query normalization should not be null");
+        }
+        this.queryNormalization = queryNormalization;
+    }
+
+    /**
+     * Sets the name of the header that carries the id of the browser window or tab of a request. Defaults to {@value
+     * #DEFAULT_WINDOW_ID_HEADER_NAME}.
+     *
+     * @param windowIdHeaderName the name of the header, or {@code null} to not take window ids from a header
+     */
+    public void setWindowIdHeaderName(String windowIdHeaderName) {
+        windowStacks.setHeaderName(windowIdHeaderName);
+    }
+
+    /**
+     * Sets the name of the request parameter that carries the id of the browser window or tab of a request, which is
+     * used in case the request has no window id header. By default, window ids are not taken from a parameter.
+     *
+     * @param windowIdParameterName the name of the parameter, or {@code null} to not take window ids from a parameter
+     */
+    public void setWindowIdParameterName(String windowIdParameterName) {
+        windowStacks.setParameterName(windowIdParameterName);
+    }
+
+    /**
+     * Sets the maximum number of window stacks per session, beyond which the least recently used one is discarded.
+     * Defaults to {@value #DEFAULT_MAX_WINDOWS}.
+     *
+     * @param maxWindows the maximum number of window stacks
+     * @throws IllegalArgumentException in case {@code maxWindows} is not positive
+     */
+    public void setMaxWindows(int maxWindows) {
+        windowStacks.setMaxWindows(maxWindows);
+    }
+
+    /**
+     * Sets the maximum depth of the navigation stack when degraded to {@link DegradationLevel#REDUCED_DEPTH}. Defaults
+     * to {@value #DEFAULT_REDUCED_MAX_DEPTH}, or the maximum depth if that is smaller.
+     *
+     * @param reducedMaxDepth the reduced maximum depth
+     * @throws IllegalArgumentException in case {@code reducedMaxDepth} is smaller than 2
+     */
+    public void setReducedMaxDepth(int reducedMaxDepth) {
+        degradationPolicy.setReducedMaxDepth(reducedMaxDepth);
+    }
+
+    /**
+     * Get the extent to which the navigational state is currently kept.
+     *
+     * @return the current degradation level
+     */
+    public DegradationLevel getDegradationLevel() {
+        return degradationPolicy.getLevel();
+    }
+
+    /**
+     * Sets the extent to which the navigational state is kept. Stacks are degraded on their next visit, and recover
+     * once the level is lowered again.
+     *
+     * @param degradationLevel the degradation level
+     */
+    public void setDegradationLevel(DegradationLevel degradationLevel) {
+        degradationPolicy.setLevel(degradationLevel);
+    }
+
+    /**
+     * Get the maximum number of uris in the navigation stack, including the base uri.
+     *
+     * @return the maximum depth of the navigation stack
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Get the number of uris that have been evicted from navigation stacks because their maximum depth was reached,
+     * across all sessions.
+     *
+     * @return the total number of evicted uris
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Get the number of distinct uris that are currently interned and shared between sessions.
+     *
+     * @return the number of interned uris
+     */
+    public int getInternedUriCount() {
+        return uriDictionary.size();
+    }
+
+    /**
+     * Get the number of times an uri was interned beyond the capacity of the uri dictionary, because none of the
+     * sampled entries was eligible for eviction.
+     *
+     * @return the number of uris interned beyond the capacity
+     */
+    public long getUriDictionaryOverflowCount() {
+        return uriDictionary.getOverflowCount();
+    }
+
     /**
      * Find out whether the user stays on the same page, i.e. whether the request is for the same url as the last
      * navigation point the user visited.
@@ -91,7 +484,7 @@ public class NavigationStackEnricher extends SimpleNavigationalStateEnricher<Nav
      * @return whether the request is for the same url as the last page the user visited
      */
     public boolean stayingOnSamePage(HttpServletRequest request) {
-        return retrieveNavigationStack(request).equalsFormerRequestUri(getRequestUriIncludingParams(request));
+        return retrieveNavigationStack(request).equalsFormerRequestUri(request.getRequestURI(), getQuery(request));
     }
 
     /**
@@ -116,6 +509,19 @@ public class NavigationStackEnricher extends SimpleNavigationalStateEnricher<Nav
         return retrieveNavigationStack(request).getPreviousNavigationPointUri();
     }
 
+    /**
+     * Find out what the navigation point url the given number of levels back in the current user navigation is. Useful
+     * for going back several steps at once, e.g. from a breadcrumb.
+     *
+     * @param request the http request (which includes the session, which includes the navigation)
+     * @param levels the number of levels to go back, where {@code 1} gives the previous navigation point
+     * @return the navigation point url the given number of levels back, or the base url in case there are fewer levels
+     * @throws IllegalArgumentException in case {@code levels} is negative
+     */
+    public String retrievePreviousNavigationPointUrl(HttpServletRequest request, int levels) {
+        return retrieveNavigationStack(request).getNavigationPointUri(levels);
+    }
+
     /**
      * Find out what the last navigation point url in the current user navigation is. The will be the current url in
      * most cases, but not if the current url is not mapped to a method or controller that is not a navigation point.
@@ -128,26 +534,47 @@ public class NavigationStackEnricher extends SimpleNavigationalStateEnricher<Nav
     }
 
     /**
-     * Reads the navigational state from the session.
+     * Reads the navigational state of the window of the request from the session.
      *
      * @param request the http request (which includes the session, which includes the navigation)
      * @return the users navigational state
      */
     private NavigationStack retrieveNavigationStack(HttpServletRequest request) {
-        Object navigation = request.getSession().getAttribute("navigation");
+        Object navigation = retrieveAttribute(request);
         if (navigation == null) {
             return init();
         } else {
-            return (NavigationStack) navigation;
+            return windowStacks.findWindow((NavigationStack) navigation, request);
         }
     }
 
-    private String getRequestUriIncludingParams(HttpServletRequest request) {
-        String requestUri = request.getRequestURI();
-        if (StringUtils.hasText(request.getQueryString())) {
-            requestUri += "?" + request.getQueryString();
+    /**
+     * Get the interned uri of the given request, including its normalized query string. The uri is looked up by the
+     * path and query string of the request, so no string is built for uris that are already interned and need no
+     * normalization.
+     *
+     * @param request the current request
+     * @return the interned request uri
+     */
+    private NavigationUri getRequestUriIncludingParams(HttpServletRequest request) {
+        return uriDictionary.intern(request.getRequestURI(), getQuery(request));
+    }
+
+    private String getQuery(HttpServletRequest request) {
+        String query = request.getQueryString();
+        if (!StringUtils.hasText(query)) {
+            return null;
         }
-        return requestUri;
+        QueryNormalization handlerQueryNormalization = QueryNormalization.find(request);
+        return (handlerQueryNormalization != null ? handlerQueryNormalization : queryNormalization).normalize(query);
+    }
+
+    /**
+     * @return the given stack, or a copy in the shared {@link UriDictionary} in case it was decoded into a dictionary
+     * of its own
+     */
+    private NavigationStack adopt(NavigationStack navigation) {
+        return navigation.getUriDictionary().isShared() ? navigation : codec.decode(codec.encode(navigation));
     }
 
     private NavigationStack assertNonNullNavigationStackAttribute(Object attribute) {
@@ -0,0 +1,140 @@
+package nl.trifork.spring.navigation.stack;
+
+/**
+ * An uri interned by the {@link UriDictionary}, so that all stacks referring to the same uri share a single instance.
+ * Stacks refer to it by its compact id, which the dictionary resolves back to this instance.
+ * <p/>
+ * The path and query string are kept apart, as the request provides them, together with the hash of the combined
+ * uri. This allows comparing an uri with a request without concatenating its path and query string; the combined uri
+ * is only built once it is asked for.
+ */
+final class NavigationUri {
+
+    private static final char QUERY_SEPARATOR = '?';
+
+    private final String path;
+    private final String query;
+    private final int hash;
+    private final int id;
+    private String uri;
+    private volatile boolean referenced;
+
+    /**
+     * Number of stack nodes that refer to this uri, guarded by the {@link UriDictionary}.
+     */
+    int retainCount;
+
+    /**
+     * @param path the path of the uri
+     * @param query the query string of the uri, or {@code null} if it has none
+     * @param hash the hash of the uri, see {@link #hash(String, String)}
+     * @param id the id in the {@link UriDictionary}
+     */
+    NavigationUri(String path, String query, int hash, int id) {
+        this.path = path;
+        this.query = query;
+        this.hash = hash;
+        this.id = id;
+    }
+
+    /**
+     * Computes the hash of the uri with the given path and query string, which equals the {@link String#hashCode()}
+     * of the combined uri, without building it.
+     *
+     * @param path the path of the uri
+     * @param query the query string of the uri, or {@code null} if it has none
+     * @return the hash of the uri
+     */
+    static int hash(String path, String query) {
+        int hash = path.hashCode();
+        if (query != null) {
+            hash = 31 * hash + QUERY_SEPARATOR;
+            for (int i = 0; i < query.length(); i++) {
+                hash = 31 * hash + query.charAt(i);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Get the id of this uri in the {@link UriDictionary} that interned it. Ids are never negative.
+     *
+     * @return the id of this uri
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the uri as a string, including its query string if any. The string is built on first use.
+     *
+     * @return the uri
+     */
+    public String getUri() {
+        String result = uri;
+        if (result == null) {
+            result = query == null ? path : path + QUERY_SEPARATOR + query;
+            uri = result;
+        }
+        return result;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    String getQuery() {
+        return query;
+    }
+
+    /**
+     * Check whether this uri equals the given one. Uris are compared by identity first.
+     *
+     * @param other the uri to compare with, may be {@code null}
+     * @return whether both uris are equal
+     */
+    public boolean sameAs(NavigationUri other) {
+        return this == other || (other != null && hash == other.hash && matches(other.path, other.query));
+    }
+
+    /**
+     * Check whether this uri has the given path and query string.
+     *
+     * @param path the path to compare with
+     * @param query the query string to compare with, or {@code null} for none
+     * @return whether this uri has the given path and query string
+     */
+    public boolean matches(String path, String query) {
+        return this.path.equals(path) && (this.query == null ? query == null : this.query.equals(query));
+    }
+
+    /**
+     * Check whether this uri has the given path and query string, comparing the given hash first.
+     */
+    boolean matches(String path, String query, int hash) {
+        return this.hash == hash && matches(path, query);
+    }
+
+    boolean isReferenced() {
+        return referenced;
+    }
+
+    void setReferenced(boolean referenced) {
+        this.referenced = referenced;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NavigationUri && sameAs((NavigationUri) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return getUri();
+    }
+}
@@ -0,0 +1,134 @@
+package nl.trifork.spring.navigation.stack;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Index of the steps of a {@link NavigationStack} by position and by uri, which finds the topmost step with a given
+ * uri, and the node at a given position, in constant time. The nodes themselves cannot index the steps below them, as
+ * they are shared between stacks.
+ * <p/>
+ * The index is a log of the nodes pushed onto the stack, starting at its first position, with an open addressing table
+ * from uri ids to entries on top. Entries are only appended, so the index is shared by all snapshots of a stack that
+ * descend from each other: each snapshot only considers the entries between its bottom and top position. Appending
+ * claims the next entry by compare-and-swap of the size, which only succeeds for a snapshot whose top is the last
+ * entry. As nodes are hash-consed, a stack that goes back and then forward to the same step pushes the very node the
+ * index already holds, and reuses its entry. A snapshot that diverged, by pushing another uri after going back, builds
+ * a new index instead. A new index has room for twice the steps it is built with, so that a growing stack, or one that
+ * evicts a step on every push, is only rebuilt once every so many pushes.
+ * <p/>
+ * Entries are written before the snapshot that contains them is published, and are never changed afterwards, so
+ * lookups do not need to lock.
+ */
+final class StackIndex {
+
+    /**
+     * Estimated number of bytes an index takes per entry it has room for.
+     */
+    static final int ESTIMATED_SIZE_PER_ENTRY = 16;
+
+    private static final AtomicIntegerFieldUpdater<StackIndex> SIZE =
+            AtomicIntegerFieldUpdater.newUpdater(StackIndex.class, "size");
+
+    private final int firstPosition;
+    private final StackNode[] nodes;
+    private final int[] table;
+    private volatile int size;
+
+    private StackIndex(int firstPosition, int capacity) {
+        this.firstPosition = firstPosition;
+        this.nodes = new StackNode[capacity];
+        this.table = new int[Integer.highestOneBit(2 * capacity - 1) << 1];
+    }
+
+    /**
+     * Builds an index of the given nodes.
+     *
+     * @param nodes the nodes from the given first position up to the top
+     * @param firstPosition the position of the first node
+     * @return the new index
+     */
+    static StackIndex of(StackNode[] nodes, int firstPosition) {
+        StackIndex index = new StackIndex(firstPosition, 2 * nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            index.add(i, nodes[i]);
+        }
+        index.size = nodes.length;
+        return index;
+    }
+
+    /**
+     * Appends the given node at the given position, in case that directly follows the last entry, or the entry at that
+     * position already holds the same node, e.g. when the stack goes back and then forward to the same step again.
+     *
+     * @param position the position of the node
+     * @param node the node to append
+     * @return whether the node was appended; if not, the caller should build a new index
+     */
+    boolean append(int position, StackNode node) {
+        int entry = position - firstPosition;
+        if (entry < size && nodes[entry] == node) {
+            return true;
+        }
+        if (entry >= nodes.length || !SIZE.compareAndSet(this, entry, entry + 1)) {
+            return false;
+        }
+        add(entry, node);
+        return true;
+    }
+
+    /**
+     * Finds the topmost position of the uri with the given id, within the given positions.
+     *
+     * @param uriId the id of the uri
+     * @param bottomPosition the lowest position to consider
+     * @param topPosition the highest position to consider
+     * @return the position of the uri, or -1 in case it is not within the given positions
+     */
+    int find(int uriId, int bottomPosition, int topPosition) {
+        int from = bottomPosition - firstPosition;
+        int to = topPosition - firstPosition;
+        int found = -1;
+        int mask = table.length - 1;
+        for (int i = spread(uriId) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int entry = table[i] - 1;
+            if (entry >= from && entry <= to && entry > found && nodes[entry].getUriId() == uriId) {
+                found = entry;
+            }
+        }
+        return found < 0 ? -1 : firstPosition + found;
+    }
+
+    /**
+     * Get the node at the given position, which should be between the first position and the top of the snapshot.
+     *
+     * @param position the position of the node
+     * @return the node at the given position
+     */
+    StackNode nodeAt(int position) {
+        return nodes[position - firstPosition];
+    }
+
+    /**
+     * Get the estimated number of bytes this index takes.
+     *
+     * @return the estimated size in bytes
+     */
+    long estimateSize() {
+        return (long) nodes.length * ESTIMATED_SIZE_PER_ENTRY;
+    }
+
+    private void add(int entry, StackNode node) {
+        nodes[entry] = node;
+        int mask = table.length - 1;
+        int i = spread(node.getUriId()) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = entry + 1;
+    }
+
+    private static int spread(int hash) {
+        int spread = hash * 0x9E3779B9;
+        return spread ^ (spread >>> 16);
+    }
+}
@@ -0,0 +1,64 @@
+package nl.trifork.spring.navigation.stack;
+
+/**
+ * Immutable node of a {@link NavigationStack}, pointing to the node below it in its segment and referring to its uri
+ * by the id of the uri in the {@link UriDictionary}. Nodes are hash-consed by the dictionary: there is at most one live
+ * node per distinct path from the root of a segment, so stacks that share a common prefix share the nodes of that
+ * prefix across all sessions.
+ */
+final class StackNode {
+
+    /**
+     * Estimated number of bytes a node takes, including its registration in the {@link UriDictionary}.
+     */
+    static final int ESTIMATED_SIZE = 72;
+
+    private final StackNode parent;
+    private final int uriId;
+    private final int depth;
+
+    /**
+     * Creates a new node; only the {@link UriDictionary} creates nodes, so that they are hash-consed.
+     */
+    StackNode(StackNode parent, int uriId) {
+        this.parent = parent;
+        this.uriId = uriId;
+        this.depth = parent == null ? 1 : parent.depth + 1;
+    }
+
+    public StackNode getParent() {
+        return parent;
+    }
+
+    /**
+     * Get the id of the uri of this node, which the {@link UriDictionary} resolves.
+     *
+     * @return the id of the uri
+     */
+    public int getUriId() {
+        return uriId;
+    }
+
+    /**
+     * Get the number of nodes from the root of the segment up to and including this one.
+     *
+     * @return the depth of this node
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Get the node the given number of levels below this one.
+     *
+     * @param levels the number of levels to descend
+     * @return the node the given number of levels below this one, or the root of the segment if there are fewer levels
+     */
+    public StackNode below(int levels) {
+        StackNode node = this;
+        for (int i = 0; i < levels && node.parent != null; i++) {
+            node = node.parent;
+        }
+        return node;
+    }
+}
@@ -0,0 +1,462 @@
+package nl.trifork.spring.navigation.stack;
+
+import nl.trifork.spring.navigation.events.NavigationUriResolver;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Bounded, concurrent dictionary that interns the uris in all {@link NavigationStack}s, so that each distinct uri is
+ * kept in memory once, instead of once per session. Stacks refer to an uri by its id, a non-negative {@code int} that
+ * the dictionary resolves back to the uri.
+ * <p/>
+ * Uris are kept in an open addressing table that is probed with the path, query string and hash of the request, so
+ * looking up an interned uri neither allocates nor builds the combined uri. Ids consist of the slot of the uri in a
+ * second table, which resolves them, and a generation of that slot, so that the id of an evicted uri does not resolve
+ * to the uri that took over its slot, until the generation wraps around after 512 reuses.
+ * <p/>
+ * The dictionary also hash-conses the {@link StackNode}s of all stacks: it keeps at most one live node per parent node
+ * and uri, registered weakly, so that nodes are garbage collected once no stack refers to them anymore. Each node
+ * retains its uri, which is never evicted while retained.
+ * <p/>
+ * Once the dictionary is full, a new uri evicts an uri that is not retained, found by sampling a few entries and
+ * giving those that have been used since they were last sampled a second chance. Sampling continues where the
+ * previous eviction stopped, like the hand of a clock, so that all entries are sampled in turn. In case no sampled
+ * entry can be evicted, the new uri is interned beyond the capacity; the dictionary then evicts up to two uris for
+ * each new one, and evicts an uri beyond the capacity as soon as the last node retaining it is collected. The
+ * dictionary is therefore bounded by its capacity plus the number of uris on live stacks.
+ * <p/>
+ * Lookups, resolutions of ids and of existing nodes read the tables without locking; changes, and lookups that miss,
+ * synchronize on the dictionary. The tables only hold immutable nodes and uris whose identifying fields are final, so a
+ * lookup that races with a change either finds a valid entry or misses and retries under the lock.
+ */
+class UriDictionary implements NavigationUriResolver {
+
+    /**
+     * The maximum capacity, which leaves room for as many uris beyond the capacity that are retained by stacks.
+     */
+    static final int MAX_CAPACITY = 1 << 21;
+
+    private static final int SLOT_BITS = 22;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+    private static final int MAX_EVICTIONS_PER_URI = 2;
+    private static final int MIN_TABLE_SIZE = 16;
+
+    private static final NavigationUri REMOVED_URI = new NavigationUri("", null, 0, -1);
+    private static final NodeReference REMOVED_NODE = new NodeReference(null, null, -1, 0, null);
+
+    private final int capacity;
+    private final boolean shared;
+    private final ReferenceQueue<StackNode> collectedNodes = new ReferenceQueue<>();
+
+    private volatile NavigationUri[] uris;
+    private int removedUris;
+    private volatile NavigationUri[] slots;
+    private int[] generations;
+    private int[] freeSlots;
+    private int freeSlotCount;
+    private int usedSlots;
+    private int size;
+    private int evictionHand;
+
+    private volatile NodeReference[] nodes;
+    private int nodeCount;
+    private int removedNodes;
+
+    private volatile long evictionCount;
+    private volatile long overflowCount;
+
+    /**
+     * Creates a new {@link UriDictionary}.
+     *
+     * @param capacity the number of uris beyond which uris that are not retained by stacks are evicted
+     * @throws IllegalArgumentException in case {@code capacity} is negative or exceeds {@link #MAX_CAPACITY}
+     */
+    public UriDictionary(int capacity) {
+        this(capacity, true);
+    }
+
+    private UriDictionary(int capacity, boolean shared) {
+        if (capacity < 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity should be between 0 and " + MAX_CAPACITY + ", but was: "
+                    + capacity);
+        }
+        this.capacity = capacity;
+        this.shared = shared;
+        this.uris = new NavigationUri[MIN_TABLE_SIZE];
+        this.slots = new NavigationUri[MIN_TABLE_SIZE];
+        this.generations = new int[MIN_TABLE_SIZE];
+        this.freeSlots = new int[MIN_TABLE_SIZE];
+        this.nodes = new NodeReference[MIN_TABLE_SIZE];
+    }
+
+    /**
+     * Creates a new {@link UriDictionary} for the uris of a single stack, which does not evict any uris.
+     *
+     * @return a new dictionary that is not shared between stacks
+     */
+    static UriDictionary forSingleStack() {
+        return new UriDictionary(MAX_CAPACITY, false);
+    }
+
+    /**
+     * Get the interned instance of the given uri, interning it if needed.
+     *
+     * @param uri the uri, including its query string if any
+     * @return the interned uri
+     */
+    public NavigationUri intern(String uri) {
+        int separator = uri.indexOf('?');
+        if (separator < 0) {
+            return intern(uri, null);
+        }
+        return intern(uri.substring(0, separator), uri.substring(separator + 1));
+    }
+
+    /**
+     * Get the interned instance of the uri with the given path and query string, interning it if needed. In case the
+     * uri is already interned, this does not allocate.
+     *
+     * @param path the path of the uri
+     * @param query the query string of the uri, or {@code null} if it has none
+     * @return the interned uri
+     */
+    public NavigationUri intern(String path, String query) {
+        int hash = NavigationUri.hash(path, query);
+        NavigationUri interned = lookup(uris, path, query, hash);
+        if (interned == null) {
+            synchronized (this) {
+                return internLocked(path, query, hash);
+            }
+        }
+        if (!interned.isReferenced()) {
+            interned.setReferenced(true);
+        }
+        return interned;
+    }
+
+    /**
+     * Resolves the given id to its uri.
+     *
+     * @param id the id of the uri
+     * @return the uri with the given id, or {@code null} in case it has been evicted
+     */
+    public NavigationUri resolve(int id) {
+        NavigationUri uri = resolve(slots, id);
+        if (uri == null) {
+            synchronized (this) {
+                uri = resolve(slots, id);
+            }
+        }
+        return uri;
+    }
+
+    @Override
+    public String resolveUri(int uriId) {
+        NavigationUri uri = resolve(uriId);
+        return uri == null ? null : uri.getUri();
+    }
+
+    /**
+     * Get the node for the given uri on top of the given parent, which is shared by all stacks with the same nodes
+     * below it. In case the uri has been evicted since it was interned, it is interned anew.
+     *
+     * @param parent the node below the new one, or {@code null} for the first node of a stack
+     * @param uri the uri on top of the parent, interned by this dictionary
+     * @return the shared node for the given uri on top of the given parent
+     */
+    public StackNode node(StackNode parent, NavigationUri uri) {
+        StackNode node = findNode(nodes, parent, uri.getId());
+        if (node != null) {
+            return node;
+        }
+        synchronized (this) {
+            expungeCollectedNodes();
+            if (resolve(slots, uri.getId()) != uri) {
+                uri = internLocked(uri.getPath(), uri.getQuery(), uri.hashCode());
+            }
+            node = findNode(nodes, parent, uri.getId());
+            if (node == null) {
+                node = new StackNode(parent, uri.getId());
+                uri.retainCount++;
+                int hash = nodeHash(parent, uri.getId());
+                addNode(new NodeReference(node, parent, uri.getId(), hash, collectedNodes));
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Get the number of interned uris.
+     *
+     * @return the number of interned uris
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of uris beyond which uris that are not retained by stacks are evicted.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Check whether this dictionary is shared between stacks, or holds the uris of a single stack only.
+     *
+     * @return whether this dictionary is shared between stacks
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Get the number of live nodes, which are shared by all stacks.
+     *
+     * @return the number of live nodes
+     */
+    public synchronized int getNodeCount() {
+        expungeCollectedNodes();
+        return nodeCount;
+    }
+
+    /**
+     * Get the number of uris that have been evicted to make room for new ones.
+     *
+     * @return the number of evicted uris
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Get the number of times an uri was interned beyond the capacity, because no sampled uri could be evicted.
+     *
+     * @return the number of uris interned beyond the capacity
+     */
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    private NavigationUri internLocked(String path, String query, int hash) {
+        NavigationUri interned = lookup(uris, path, query, hash);
+        if (interned != null) {
+            interned.setReferenced(true);
+            return interned;
+        }
+        for (int i = 0; i < MAX_EVICTIONS_PER_URI && size >= capacity; i++) {
+            if (!evictUnreferenced()) {
+                break;
+            }
+        }
+        if (size >= capacity) {
+            overflowCount++;
+        }
+        int slot = allocateSlot();
+        interned = new NavigationUri(path, query, hash, generations[slot] << SLOT_BITS | slot);
+        slots[slot] = interned;
+        if ((size + removedUris + 1) * 2 > uris.length) {
+            uris = rehash(uris, size + 1);
+            removedUris = 0;
+        }
+        insert(uris, interned);
+        size++;
+        return interned;
+    }
+
+    /**
+     * Samples the next few entries, giving referenced ones a second chance, and evicts the first one that is neither
+     * referenced nor retained.
+     */
+    private boolean evictUnreferenced() {
+        int samples = Math.min(EVICTION_SAMPLE_SIZE, usedSlots);
+        for (int i = 0; i < samples; i++) {
+            evictionHand = evictionHand + 1 < usedSlots ? evictionHand + 1 : 0;
+            NavigationUri sampled = slots[evictionHand];
+            if (sampled == null || sampled.retainCount > 0) {
+                continue;
+            }
+            if (sampled.isReferenced()) {
+                sampled.setReferenced(false);
+            } else {
+                remove(sampled);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void remove(NavigationUri uri) {
+        NavigationUri[] table = uris;
+        int mask = table.length - 1;
+        int i = spread(uri.hashCode()) & mask;
+        while (table[i] != uri) {
+            i = (i + 1) & mask;
+        }
+        table[i] = REMOVED_URI;
+        removedUris++;
+        int slot = uri.getId() & SLOT_MASK;
+        slots[slot] = null;
+        generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+        freeSlots[freeSlotCount++] = slot;
+        size--;
+        evictionCount++;
+    }
+
+    private int allocateSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (usedSlots == slots.length) {
+            if (usedSlots > SLOT_MASK) {
+                throw new IllegalStateException("Uri dictionary has no free slots left");
+            }
+            int length = Math.min(2 * slots.length, SLOT_MASK + 1);
+            slots = Arrays.copyOf(slots, length);
+            generations = Arrays.copyOf(generations, length);
+            freeSlots = Arrays.copyOf(freeSlots, length);
+        }
+        return usedSlots++;
+    }
+
+    private StackNode findNode(NodeReference[] table, StackNode parent, int uriId) {
+        int mask = table.length - 1;
+        for (int i = spread(nodeHash(parent, uriId)) & mask; ; i = (i + 1) & mask) {
+            NodeReference reference = table[i];
+            if (reference == null) {
+                return null;
+            }
+            if (reference.parent == parent && reference.uriId == uriId) {
+                StackNode node = reference.get();
+                if (node != null) {
+                    return node;
+                }
+            }
+        }
+    }
+
+    private void addNode(NodeReference reference) {
+        if ((nodeCount + removedNodes + 1) * 2 > nodes.length) {
+            NodeReference[] table = new NodeReference[tableSizeFor(nodeCount + 1)];
+            for (NodeReference existing : nodes) {
+                if (existing != null && existing != REMOVED_NODE) {
+                    insert(table, existing);
+                }
+            }
+            nodes = table;
+            removedNodes = 0;
+        }
+        insert(nodes, reference);
+        nodeCount++;
+    }
+
+    /**
+     * Removes the registrations of collected nodes, and releases their uris.
+     */
+    private void expungeCollectedNodes() {
+        NodeReference collected;
+        while ((collected = (NodeReference) collectedNodes.poll()) != null) {
+            NodeReference[] table = nodes;
+            int mask = table.length - 1;
+            int i = spread(collected.hash) & mask;
+            while (table[i] != collected) {
+                i = (i + 1) & mask;
+            }
+            table[i] = REMOVED_NODE;
+            removedNodes++;
+            nodeCount--;
+            NavigationUri uri = resolve(slots, collected.uriId);
+            if (--uri.retainCount == 0 && size > capacity) {
+                remove(uri);
+            }
+        }
+    }
+
+    private static NavigationUri lookup(NavigationUri[] table, String path, String query, int hash) {
+        int mask = table.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            NavigationUri uri = table[i];
+            if (uri == null) {
+                return null;
+            }
+            if (uri != REMOVED_URI && uri.matches(path, query, hash)) {
+                return uri;
+            }
+        }
+    }
+
+    private static NavigationUri resolve(NavigationUri[] table, int id) {
+        int slot = id & SLOT_MASK;
+        NavigationUri uri = slot < table.length ? table[slot] : null;
+        return uri != null && uri.getId() == id ? uri : null;
+    }
+
+    private static NavigationUri[] rehash(NavigationUri[] table, int size) {
+        NavigationUri[] rehashed = new NavigationUri[tableSizeFor(size)];
+        for (NavigationUri uri : table) {
+            if (uri != null && uri != REMOVED_URI) {
+                insert(rehashed, uri);
+            }
+        }
+        return rehashed;
+    }
+
+    private static void insert(NavigationUri[] table, NavigationUri uri) {
+        int mask = table.length - 1;
+        int i = spread(uri.hashCode()) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = uri;
+    }
+
+    private static void insert(NodeReference[] table, NodeReference reference) {
+        int mask = table.length - 1;
+        int i = spread(reference.hash) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = reference;
+    }
+
+    /**
+     * @return a power of two table size that is at most a quarter full with the given number of entries
+     */
+    private static int tableSizeFor(int entries) {
+        return Integer.highestOneBit(Math.max(MIN_TABLE_SIZE, entries * 4) - 1) << 1;
+    }
+
+    private static int nodeHash(StackNode parent, int uriId) {
+        return 31 * System.identityHashCode(parent) + uriId;
+    }
+
+    private static int spread(int hash) {
+        int spread = hash * 0x9E3779B9;
+        return spread ^ (spread >>> 16);
+    }
+
+    /**
+     * Weak registration of a node, identified by its parent and the id of its uri. Parents are compared by identity,
+     * which is sound as nodes are hash-consed.
+     */
+    private static final class NodeReference extends WeakReference<StackNode> {
+
+        private final StackNode parent;
+        private final int uriId;
+        private final int hash;
+
+        private NodeReference(StackNode node, StackNode parent, int uriId, int hash,
+                              ReferenceQueue<StackNode> queue) {
+            super(node, queue);
+            this.parent = parent;
+            this.uriId = uriId;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package nl.trifork.spring.navigation.stack;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Resolves the stack of the browser window or tab of a request within the {@link NavigationStack} of its session. The
+ * window is identified by a header or, failing that, a request parameter; requests without a valid window id navigate
+ * the stack of the session itself.
+ */
+final class WindowStacks {
+
+    private static final int MAX_WINDOW_ID_LENGTH = 64;
+
+    private String headerName = NavigationStackEnricher.DEFAULT_WINDOW_ID_HEADER_NAME;
+    private String parameterName;
+    private int maxWindows = NavigationStackEnricher.DEFAULT_MAX_WINDOWS;
+
+    void setHeaderName(String headerName) {
+        this.headerName = headerName;
+    }
+
+    void setParameterName(String parameterName) {
+        this.parameterName = parameterName;
+    }
+
+    void setMaxWindows(int maxWindows) {
+        if (maxWindows <= 0) {
+            throw new IllegalArgumentException("Max windows should be positive, but was: " + maxWindows);
+        }
+        this.maxWindows = maxWindows;
+    }
+
+    /**
+     * @return the stack of the window of the request, created if needed, or the given stack if the request has no
+     * window id
+     */
+    NavigationStack getWindow(NavigationStack navigation, HttpServletRequest request) {
+        String windowId = getWindowId(request);
+        return windowId == null ? navigation : navigation.getWindow(windowId, maxWindows);
+    }
+
+    /**
+     * @return the stack of the window of the request, or the given stack if the request has no window id or its window
+     * has no stack (yet)
+     */
+    NavigationStack findWindow(NavigationStack navigation, HttpServletRequest request) {
+        String windowId = getWindowId(request);
+        NavigationStack window = windowId == null ? null : navigation.findWindow(windowId);
+        return window == null ? navigation : window;
+    }
+
+    /**
+     * @return the window id of the request, or {@code null} if it has none or an invalid one
+     */
+    private String getWindowId(HttpServletRequest request) {
+        String windowId = headerName == null ? null : request.getHeader(headerName);
+        if (windowId == null && parameterName != null) {
+            windowId = request.getParameter(parameterName);
+        }
+        if (windowId == null || windowId.isEmpty() || windowId.length() > MAX_WINDOW_ID_LENGTH) {
+            return null;
+        }
+        return windowId;
+    }
+}
@@ -1,12 +1,13 @@
 package nl.trifork.spring.navigation;
 
 import nl.trifork.spring.navigation.stack.NavigationStackEnricher;
+import org.junit.After;
 import org.junit.Before;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -17,31 +18,47 @@ import java.util.List;
  */
 public abstract class AbstractNavigationTest {
 
+    private AnnotationConfigApplicationContext context;
     private MockMvc mockMvc;
     private MockHttpSession session;
 
     @Before
-    public void setUp() throws NoSuchFieldException, IllegalAccessException {
+    public void setUp() {
         this.session = new MockHttpSession();
-        NavigationHandlerInterceptor navigationHandlerInterceptor = new NavigationHandlerInterceptor();
 
-        List<NavigationalStateEnricher> enrichers = new ArrayList<>();
-        enrichers.add(new NavigationStackEnricher());
-        enrichers.addAll(additionalNavigationStateEnrichers());
-        Field field = navigationHandlerInterceptor.getClass().getDeclaredField("enrichers");
-        field.setAccessible(true);
-        field.set(navigationHandlerInterceptor, enrichers);
+        List<Object> beans = new ArrayList<>();
+        beans.addAll(additionalNavigationStateEnrichers());
+        Collections.addAll(beans, getNavigationBeans());
+        this.context = new AnnotationConfigApplicationContext();
+        for (int i = 0; i < beans.size(); i++) {
+            context.getBeanFactory().registerSingleton("navigationBean" + i, beans.get(i));
+        }
+        context.register(NavigationStackEnricher.class, NavigationHandlerInterceptor.class);
+        context.refresh();
 
         this.mockMvc = MockMvcBuilders
                        .standaloneSetup(getControllersUnderTest())
-                       .addInterceptors(navigationHandlerInterceptor)
+                       .addInterceptors(context.getBean(NavigationHandlerInterceptor.class))
                        .build();
     }
 
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
     protected Collection<? extends NavigationalStateEnricher> additionalNavigationStateEnrichers() {
         return Collections.emptySet();
     }
 
+    /**
+     * @return the beans that the navigation is configured with besides the enrichers, such as a {@link
+     * NavigationStateRepository} or {@link NavigationMetrics}
+     */
+    protected Object[] getNavigationBeans() {
+        return new Object[0];
+    }
+
     protected abstract Object[] getControllersUnderTest();
 
     public MockMvc getMockMvc() {
@@ -41,6 +41,20 @@ public class AnnotatedControllersTest extends AbstractNavigationTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    public void windows_navigate_their_own_stack() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()).header("X-Navigation-Window", "first"));
+        getMockMvc().perform(get("/base/step/two").session(getSession()).header("X-Navigation-Window", "second"))
+                .andExpect(model().attribute("navigationBack", "/base"));
+
+        getMockMvc().perform(get("/base/step/two").session(getSession()).header("X-Navigation-Window", "first"))
+                .andExpect(model().attribute("navigationCurrent", "/base/step/two"))
+                .andExpect(model().attribute("navigationBack", "/base/step/one"));
+        getMockMvc().perform(get("/base").session(getSession()))
+                .andExpect(model().attribute("navigationCurrent", "/base"));
+    }
+
     @Test
     public void navigation_to_step_page_via_base_page() throws Exception {
         getMockMvc().perform(get("/base").session(getSession()));
@@ -73,6 +87,18 @@ public class AnnotatedControllersTest extends AbstractNavigationTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    public void going_back_removes_the_last_step_from_the_navigation_state() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()));
+        getMockMvc().perform(get("/base/step/two").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()))
+                .andExpect(model().attribute("navigationCurrent", "/base/step/one"))
+                .andExpect(model().attribute("navigationBack", "/base"))
+                .andExpect(model().attribute("navigationBase", "/base"))
+                .andExpect(status().isOk());
+    }
+
     @Test
     public void visiting_a_base_page_overrides_navigation_state() throws Exception {
         getMockMvc().perform(get("/base").session(getSession()));
@@ -0,0 +1,87 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.annotations.NavigationPoint;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.StepPagesClassAnnotatedController;
+import org.junit.Test;
+import org.springframework.stereotype.Controller;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.concurrent.Callable;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+public class AsyncControllersTest extends AbstractNavigationTest {
+
+    private final AsyncStepPagesController asyncController = new AsyncStepPagesController();
+
+    @Override
+    protected Object[] getControllersUnderTest() {
+        return new Object[] {
+                new BasePageClassAnnotatedController(),
+                new StepPagesClassAnnotatedController(),
+                asyncController
+        };
+    }
+
+    @Test
+    public void navigation_to_callable_step_page_is_applied_when_the_result_is_dispatched() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+
+        MvcResult result = getMockMvc().perform(get("/async/callable").session(getSession()))
+                .andExpect(request().asyncStarted())
+                .andExpect(request().asyncResult("fake"))
+                .andReturn();
+        getMockMvc().perform(asyncDispatch(result))
+                .andExpect(model().attribute("navigationCurrent", "/async/callable"))
+                .andExpect(model().attribute("navigationBack", "/base"));
+
+        getMockMvc().perform(get("/base/step/one").session(getSession()))
+                .andExpect(model().attribute("navigationBack", "/async/callable"));
+    }
+
+    @Test
+    public void navigation_to_deferred_step_page_is_applied_once() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+
+        MvcResult result = getMockMvc().perform(get("/async/deferred").session(getSession()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        asyncController.deferredResult.setResult("fake");
+        getMockMvc().perform(asyncDispatch(result))
+                .andExpect(model().attribute("navigationCurrent", "/async/deferred"))
+                .andExpect(model().attribute("navigationBack", "/base"));
+
+        getMockMvc().perform(get("/base/step/one").session(getSession()))
+                .andExpect(model().attribute("navigationBack", "/async/deferred"));
+    }
+
+    @Controller
+    @RequestMapping("async")
+    @NavigationPoint(NavigationPointType.STEP)
+    public static class AsyncStepPagesController {
+
+        private DeferredResult<String> deferredResult;
+
+        @RequestMapping("callable")
+        public Callable<String> showCallable() {
+            return new Callable<String>() {
+                @Override
+                public String call() {
+                    return "fake";
+                }
+            };
+        }
+
+        @RequestMapping("deferred")
+        public DeferredResult<String> showDeferred() {
+            deferredResult = new DeferredResult<>();
+            return deferredResult;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.NavigationMetrics.EnricherCallback;
+import nl.trifork.spring.navigation.stack.NavigationStackEnricher;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class CompositeNavigationMetricsTest {
+
+    private final NavigationStackEnricher enricher = new NavigationStackEnricher();
+
+    @Test
+    public void callbacks_are_neither_traced_nor_timed_while_no_delegate_needs_it() {
+        CompositeNavigationMetrics composite = new CompositeNavigationMetrics(new TracingMetrics(false));
+
+        assertThat(composite.begin(enricher, EnricherCallback.INIT), is(nullValue()));
+        assertThat(composite.isTimingRequired(), is(false));
+    }
+
+    @Test
+    public void the_trace_of_a_single_tracing_delegate_is_passed_on_as_it_is() {
+        TracingMetrics tracing = new TracingMetrics(true);
+        CompositeNavigationMetrics composite = new CompositeNavigationMetrics(tracing, new TimedMetrics());
+
+        assertThat(composite.begin(enricher, EnricherCallback.INIT), is(sameInstance(tracing.trace)));
+    }
+
+    @Test
+    public void a_composite_times_callbacks_only_for_delegates_that_do_not_trace_them() {
+        TracingMetrics tracing = new TracingMetrics(true);
+        TimedMetrics timed = new TimedMetrics();
+        CompositeNavigationMetrics composite = new CompositeNavigationMetrics(tracing, timed, new TracingMetrics(true));
+
+        EnricherCallbackTracer.Trace trace = composite.begin(enricher, EnricherCallback.INIT);
+        trace.finish();
+        composite.recordEnricherCallback(enricher, EnricherCallback.INIT, 1000);
+
+        assertThat(composite.isTimingRequired(), is(true));
+        assertThat(tracing.finished, contains(EnricherCallback.INIT));
+        assertThat(tracing.recorded, is(empty()));
+        assertThat(timed.recorded, contains(EnricherCallback.INIT));
+    }
+
+    private static class TimedMetrics implements NavigationMetrics {
+
+        final List<EnricherCallback> recorded = new ArrayList<>();
+
+        @Override
+        public void register(NavigationalStateEnricher<?> enricher) {
+        }
+
+        @Override
+        public void recordEnricherCallback(NavigationalStateEnricher<?> enricher, EnricherCallback callback,
+                                           long nanos) {
+            recorded.add(callback);
+        }
+
+        @Override
+        public void recordRequest(NavigationPointType navigationPointType) {
+        }
+
+        @Override
+        public void recordTransition(Transition transition, int depth, int uriId) {
+        }
+
+        @Override
+        public void recordStateLoad() {
+        }
+
+        @Override
+        public void recordStateSave(String attributeName, int size) {
+        }
+    }
+
+    private static class TracingMetrics extends TimedMetrics implements EnricherCallbackTracer {
+
+        private final boolean enabled;
+        final List<EnricherCallback> finished = new ArrayList<>();
+        Trace trace;
+
+        TracingMetrics(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        @Override
+        public Trace begin(NavigationalStateEnricher<?> enricher, final EnricherCallback callback) {
+            if (!enabled) {
+                return null;
+            }
+            trace = new Trace() {
+                @Override
+                public void finish() {
+                    finished.add(callback);
+                }
+            };
+            return trace;
+        }
+
+        @Override
+        public boolean isTimingRequired() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BaseAndStepPagesMethodAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.StepPagesClassAnnotatedController;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+
+import javax.servlet.http.HttpSessionEvent;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+
+public class InMemoryNavigationStateRepositoryTest extends AbstractNavigationTest {
+
+    private long now = 0;
+
+    private final InMemoryNavigationStateRepository repository =
+            new InMemoryNavigationStateRepository(16, 10, TimeUnit.MINUTES) {
+                @Override
+                long currentTimeMillis() {
+                    return now;
+                }
+            };
+
+    @Override
+    protected Object[] getControllersUnderTest() {
+        return new Object[] {
+                new BasePageClassAnnotatedController(),
+                new StepPagesClassAnnotatedController(),
+                new BaseAndStepPagesMethodAnnotatedController()
+        };
+    }
+
+    @Override
+    protected Object[] getNavigationBeans() {
+        return new Object[] { repository };
+    }
+
+    @Test
+    public void navigational_state_is_kept_outside_of_the_session() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()))
+                .andExpect(model().attribute("navigationCurrent", "/base/step/one"))
+                .andExpect(model().attribute("navigationBack", "/base"));
+
+        assertThat(getSession().getAttribute("navigation"), is(nullValue()));
+        assertThat(repository.size(), is(1));
+    }
+
+    @Test
+    public void state_is_kept_per_session() {
+        repository.save(request(new MockHttpSession()), new MockHttpServletResponse(), "name", "first");
+        MockHttpServletRequest request = request(new MockHttpSession());
+
+        assertThat(repository.load(request, "name"), is(nullValue()));
+        repository.save(request, new MockHttpServletResponse(), "name", "second");
+        assertThat(repository.load(request, "name"), is((Object) "second"));
+    }
+
+    @Test
+    public void state_of_an_idle_session_expires() {
+        MockHttpServletRequest idle = request(new MockHttpSession());
+        MockHttpServletRequest active = request(new MockHttpSession());
+        repository.save(idle, new MockHttpServletResponse(), "name", "idle");
+        repository.save(active, new MockHttpServletResponse(), "name", "active");
+
+        now = TimeUnit.MINUTES.toMillis(6);
+        assertThat(repository.load(active, "name"), is((Object) "active"));
+        now = TimeUnit.MINUTES.toMillis(11);
+
+        assertThat(repository.evictExpired(), is(1));
+        assertThat(repository.load(idle, "name"), is(nullValue()));
+        assertThat(repository.load(active, "name"), is((Object) "active"));
+    }
+
+    @Test
+    public void least_recently_used_state_is_evicted_when_full() {
+        MockHttpServletRequest first = request(new MockHttpSession());
+        repository.save(first, new MockHttpServletResponse(), "name", "first");
+        for (int i = 0; i < 1000; i++) {
+            repository.save(request(new MockHttpSession()), new MockHttpServletResponse(), "name", "other");
+        }
+
+        assertThat(repository.size(), is(16));
+        assertThat(repository.load(first, "name"), is(nullValue()));
+    }
+
+    @Test
+    public void evicted_and_expired_state_is_no_longer_accounted_for() {
+        NavigationMemoryAccounting accounting = new NavigationMemoryAccounting();
+        repository.setNavigationMemoryAccounting(accounting);
+        MockHttpSession first = new MockHttpSession();
+        repository.save(request(first), new MockHttpServletResponse(), "name", "first");
+        accounting.record(first.getId(), "name", 100, 0);
+        for (int i = 0; i < 1000; i++) {
+            MockHttpSession other = new MockHttpSession();
+            repository.save(request(other), new MockHttpServletResponse(), "name", "other");
+            accounting.record(other.getId(), "name", 10, 0);
+        }
+
+        assertThat(accounting.getSessionCount(), is(16));
+        assertThat(accounting.getTotalEstimatedBytes(), is(160L));
+
+        now = TimeUnit.MINUTES.toMillis(11);
+        repository.evictExpired();
+
+        assertThat(accounting.getSessionCount(), is(0));
+        assertThat(accounting.getTotalEstimatedBytes(), is(0L));
+    }
+
+    @Test
+    public void state_is_removed_when_the_session_is_destroyed() {
+        MockHttpSession session = new MockHttpSession();
+        repository.save(request(session), new MockHttpServletResponse(), "name", "value");
+
+        repository.sessionDestroyed(new HttpSessionEvent(session));
+
+        assertThat(repository.size(), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void max_idle_time_should_be_positive() {
+        new InMemoryNavigationStateRepository(16, 0, TimeUnit.MINUTES);
+    }
+
+    private static MockHttpServletRequest request(MockHttpSession session) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSession(session);
+        return request;
+    }
+}
@@ -0,0 +1,202 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.StepPagesClassAnnotatedController;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+public class NavigationMemoryAccountingTest extends AbstractNavigationTest {
+
+    private final NavigationMemoryAccounting accounting = new NavigationMemoryAccounting();
+    private final NoteEnricher noteEnricher = new NoteEnricher();
+
+    @Override
+    protected Object[] getControllersUnderTest() {
+        return new Object[] {
+                new BasePageClassAnnotatedController(),
+                new StepPagesClassAnnotatedController(),
+                new NoteController()
+        };
+    }
+
+    @Override
+    protected Collection<? extends NavigationalStateEnricher> additionalNavigationStateEnrichers() {
+        return Collections.singleton(noteEnricher);
+    }
+
+    @Override
+    protected Object[] getNavigationBeans() {
+        return new Object[] { accounting };
+    }
+
+    @Test
+    public void navigation_stacks_are_accounted_for_by_depth() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        long baseOnly = accounting.getTotalEstimatedBytes();
+        getMockMvc().perform(get("/base/step/one").session(getSession()));
+        getMockMvc().perform(get("/base/step/two").session(getSession()));
+
+        assertThat(baseOnly, is(greaterThan(0L)));
+        assertThat(accounting.getTotalEstimatedBytes(), is(greaterThan(baseOnly)));
+        assertThat(accounting.getSessionCount(), is(1));
+        assertThat(accounting.getDepthHistogram()[3], is(1L));
+        assertThat(accounting.getDepthHistogram()[1], is(0L));
+    }
+
+    @Test
+    public void the_first_navigation_point_of_a_new_visitor_is_accounted_for() throws Exception {
+        getMockMvc().perform(get("/base"));
+
+        assertThat(accounting.getSessionCount(), is(1));
+        assertThat(accounting.getTotalEstimatedBytes(), is(greaterThan(0L)));
+        assertThat(accounting.getDepthHistogram()[1], is(1L));
+    }
+
+    @Test
+    public void destroyed_sessions_are_no_longer_accounted_for() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()));
+
+        accounting.sessionDestroyed(new HttpSessionEvent(getSession()));
+
+        assertThat(accounting.getTotalEstimatedBytes(), is(0L));
+        assertThat(accounting.getSessionCount(), is(0));
+        assertThat(accounting.getDepthHistogram()[2], is(0L));
+    }
+
+    @Test
+    public void heaviest_sessions_are_listed_from_the_heaviest_down() throws Exception {
+        MockHttpSession other = new MockHttpSession();
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base").session(other));
+        getMockMvc().perform(get("/base/step/one").session(other));
+
+        String[] heaviest = accounting.getHeaviestSessions(1);
+
+        assertThat(heaviest.length, is(1));
+        assertThat(heaviest[0].startsWith(other.getId() + "="), is(true));
+        assertThat(accounting.getHeaviestSessions(5).length, is(2));
+    }
+
+    @Test
+    public void recording_an_attribute_again_replaces_its_estimate() {
+        accounting.record("session", "attribute", 100, 70);
+        accounting.record("session", "attribute", 40, 2);
+        accounting.record("other", "attribute", 60, 0);
+
+        assertThat(accounting.getTotalEstimatedBytes(), is(100L));
+        assertThat(accounting.getDepthHistogram()[NavigationMemoryAccounting.DEPTH_HISTOGRAM_SIZE - 1], is(0L));
+        assertThat(accounting.getDepthHistogram()[2], is(1L));
+        assertThat(accounting.getHeaviestSessions(2), is(arrayContaining("other=60", "session=40")));
+    }
+
+    @Test
+    public void attributes_updated_by_a_controller_are_accounted_for() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        long beforeUpdate = accounting.getTotalEstimatedBytes();
+
+        getMockMvc().perform(post("/note").session(getSession()));
+
+        assertThat(accounting.getTotalEstimatedBytes(), is(beforeUpdate + "updated by the controller".length()
+                - "no note yet".length()));
+    }
+
+    @Test
+    public void accounts_removed_while_recording_are_not_left_behind() throws Exception {
+        final int threads = 4;
+        final int operationsPerThread = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> operations = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final boolean recording = t % 2 == 0;
+                operations.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < operationsPerThread; i++) {
+                            if (recording) {
+                                accounting.record("session", "attribute", 10, 3);
+                            } else {
+                                accounting.remove("session");
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> operation : operations) {
+                operation.get(30, TimeUnit.SECONDS);
+            }
+
+            accounting.remove("session");
+
+            assertThat(accounting.getTotalEstimatedBytes(), is(0L));
+            assertThat(accounting.getSessionCount(), is(0));
+            assertThat(accounting.getDepthHistogram()[3], is(0L));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class NoteEnricher extends SimpleNavigationalStateEnricher<String>
+            implements NavigationStateSizeEstimator {
+
+        private NoteEnricher() {
+            super("note", String.class);
+        }
+
+        @Override
+        public String init() {
+            return "no note yet";
+        }
+
+        @Override
+        public long estimateSize(Object attribute) {
+            return ((String) attribute).length();
+        }
+
+        @Override
+        public int getDepth(Object attribute) {
+            return 0;
+        }
+    }
+
+    private class NoteController {
+
+        @RequestMapping(value = "note", method = RequestMethod.POST)
+        public String updateNote(HttpSession session) {
+            noteEnricher.update(new SessionAttributeUpdater<String>() {
+                @Override
+                public String update(Object attributeToUpdate, Class<String> domainClass) {
+                    return "updated by the controller";
+                }
+            }, session);
+            return "fake";
+        }
+    }
+}
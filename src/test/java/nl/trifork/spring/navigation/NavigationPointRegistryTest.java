@@ -0,0 +1,117 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.stack.NavigationStackEnricher;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BaseAndStepPagesMethodAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.implementing.StepPagesImplementingController;
+import org.junit.Test;
+import org.springframework.web.method.HandlerMethod;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class NavigationPointRegistryTest {
+
+    private final NavigationPointRegistry registry = new NavigationPointRegistry();
+
+    private final NavigationStackEnricher navigationStackEnricher = new NavigationStackEnricher();
+    private final TitleEnricher titleEnricher = new TitleEnricher();
+    private final List<NavigationalStateEnricher<?>> enrichers =
+            Arrays.<NavigationalStateEnricher<?>>asList(navigationStackEnricher, titleEnricher);
+
+    @Test
+    public void registered_handler_methods_resolve_to_their_annotated_type() throws Exception {
+        BaseAndStepPagesMethodAnnotatedController controller = new BaseAndStepPagesMethodAnnotatedController();
+        HandlerMethod base = new HandlerMethod(controller, "showBasePage");
+        HandlerMethod step = new HandlerMethod(controller, "showStepPage");
+        HandlerMethod neutral = new HandlerMethod(controller, "showNeutralPage");
+        registry.register(Arrays.asList(base, step, neutral));
+
+        assertThat(registry.getNavigationPointType(base), is(NavigationPointType.BASE));
+        assertThat(registry.getNavigationPointType(step), is(NavigationPointType.STEP));
+        assertThat(registry.getNavigationPointType(neutral), is(nullValue()));
+    }
+
+    @Test
+    public void unregistered_handler_methods_are_resolved_on_first_use() throws Exception {
+        HandlerMethod handlerMethod = new HandlerMethod(new BasePageClassAnnotatedController(), "show");
+
+        assertThat(registry.getNavigationPointType(handlerMethod), is(NavigationPointType.BASE));
+        assertThat(registry.getNavigationPointType(handlerMethod), is(NavigationPointType.BASE));
+    }
+
+    @Test
+    public void implementing_controllers_determine_their_own_type() throws Exception {
+        HandlerMethod handlerMethod = new HandlerMethod(new StepPagesImplementingController(), "showOne");
+
+        assertThat(registry.getNavigationPointType(handlerMethod), is(NavigationPointType.STEP));
+    }
+
+    @Test
+    public void all_enrichers_apply_unless_selected() throws Exception {
+        HandlerMethod handlerMethod = new HandlerMethod(new BasePageClassAnnotatedController(), "show");
+
+        assertArrayEquals(new Object[] {navigationStackEnricher, titleEnricher},
+                registry.getEnrichers(handlerMethod, enrichers));
+    }
+
+    @Test
+    public void annotated_handler_methods_select_their_enrichers() throws Exception {
+        HandlerMethod handlerMethod = new HandlerMethod(new SelectingController(), "show");
+        registry.register(Arrays.asList(handlerMethod));
+
+        assertArrayEquals(new Object[] {titleEnricher}, registry.getEnrichers(handlerMethod, enrichers));
+        assertThat(registry.getNavigationPointType(handlerMethod), is(NavigationPointType.STEP));
+    }
+
+    @Test
+    public void implementing_controllers_select_their_enrichers() throws Exception {
+        HandlerMethod handlerMethod = new HandlerMethod(new SelectingImplementingController(), "show");
+
+        assertArrayEquals(new Object[] {navigationStackEnricher}, registry.getEnrichers(handlerMethod, enrichers));
+    }
+
+    private static class TitleEnricher extends SimpleNavigationalStateEnricher<String> {
+
+        public TitleEnricher() {
+            super("title", String.class);
+        }
+
+        @Override
+        public String init() {
+            return "";
+        }
+    }
+
+    private static class SelectingController {
+
+        @nl.trifork.spring.navigation.annotations.NavigationPoint(value = NavigationPointType.STEP,
+                enrichers = TitleEnricher.class)
+        public String show() {
+            return "fake";
+        }
+    }
+
+    private static class SelectingImplementingController implements SelectiveNavigationPoint {
+
+        @Override
+        public NavigationPointType getNavigationPointType() {
+            return NavigationPointType.BASE;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Class<? extends NavigationalStateEnricher>[] getEnrichers() {
+            return new Class[] {NavigationStackEnricher.class};
+        }
+
+        public String show() {
+            return "fake";
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.stack.NavigationStackEnricher;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.StepPagesClassAnnotatedController;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+
+public class NavigationStateSweeperTest extends AbstractNavigationTest {
+
+    private long now = 0;
+
+    private final InMemoryNavigationStateRepository repository =
+            new InMemoryNavigationStateRepository(16, 60, TimeUnit.MINUTES) {
+                @Override
+                long currentTimeMillis() {
+                    return now;
+                }
+            };
+
+    private final NavigationMemoryAccounting accounting = new NavigationMemoryAccounting();
+
+    private final NavigationStateSweeper sweeper = new NavigationStateSweeper(repository, new NavigationStackEnricher(),
+            10, TimeUnit.MINUTES);
+
+    @Override
+    protected Object[] getControllersUnderTest() {
+        return new Object[] {
+                new BasePageClassAnnotatedController(),
+                new StepPagesClassAnnotatedController()
+        };
+    }
+
+    @Override
+    protected Object[] getNavigationBeans() {
+        return new Object[] { repository, accounting };
+    }
+
+    @Test
+    public void compacted_navigation_stacks_are_accounted_for_again() throws Exception {
+        repository.setNavigationMemoryAccounting(accounting);
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()));
+        getMockMvc().perform(get("/base/step/two").session(getSession()));
+        long before = accounting.getTotalEstimatedBytes();
+
+        now = TimeUnit.MINUTES.toMillis(15);
+        sweeper.sweep();
+
+        assertThat(accounting.getTotalEstimatedBytes(), is(lessThan(before)));
+        assertThat(accounting.getDepthHistogram()[3], is(0L));
+        assertThat(accounting.getDepthHistogram()[2], is(1L));
+    }
+
+    @Test
+    public void idle_navigation_stacks_are_compacted_to_their_base_and_last_uri() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()));
+        getMockMvc().perform(get("/base/step/two").session(getSession()));
+
+        now = TimeUnit.MINUTES.toMillis(5);
+        assertThat(sweeper.sweep(), is(0L));
+        now = TimeUnit.MINUTES.toMillis(15);
+        assertThat(sweeper.sweep(), is(greaterThan(0L)));
+        assertThat(sweeper.sweep(), is(0L));
+
+        getMockMvc().perform(get("/base/step/two").session(getSession()))
+                .andExpect(model().attribute("navigationCurrent", "/base/step/two"))
+                .andExpect(model().attribute("navigationBack", "/base"));
+        assertThat(sweeper.getReclaimedBytes(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void a_run_sweeps_at_least_a_single_segment() {
+        sweeper.setMaxRunMillis(1);
+
+        sweeper.sweep();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void min_idle_time_should_not_be_negative() {
+        new NavigationStateSweeper(repository, new NavigationStackEnricher(), -1, TimeUnit.MINUTES);
+    }
+}
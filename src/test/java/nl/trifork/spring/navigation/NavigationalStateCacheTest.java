@@ -0,0 +1,94 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BaseAndStepPagesMethodAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.StepPagesClassAnnotatedController;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+
+public class NavigationalStateCacheTest extends AbstractNavigationTest {
+
+    private final List<String> writtenAttributes = new ArrayList<>();
+
+    private final MockHttpSession session = new MockHttpSession() {
+        @Override
+        public void setAttribute(String name, Object value) {
+            writtenAttributes.add(name);
+            super.setAttribute(name, value);
+        }
+    };
+
+    @Override
+    protected Object[] getControllersUnderTest() {
+        return new Object[] {
+                new BasePageClassAnnotatedController(),
+                new StepPagesClassAnnotatedController(),
+                new BaseAndStepPagesMethodAnnotatedController()
+        };
+    }
+
+    @Test
+    public void navigational_state_is_written_to_the_session_once_per_request() throws Exception {
+        getMockMvc().perform(get("/base").session(session));
+        writtenAttributes.clear();
+
+        getMockMvc().perform(get("/base/step/one").session(session))
+                .andExpect(model().attribute("navigationCurrent", "/base/step/one"))
+                .andExpect(model().attribute("navigationBack", "/base"));
+
+        assertThat(writtenAttributes, contains("navigation"));
+    }
+
+    @Test
+    public void visiting_a_page_that_is_no_navigation_point_does_not_write_to_the_session() throws Exception {
+        getMockMvc().perform(get("/base").session(session));
+        writtenAttributes.clear();
+
+        getMockMvc().perform(get("/no_navigation_point").session(session))
+                .andExpect(model().attribute("navigationCurrent", "/base"));
+
+        assertThat(writtenAttributes, empty());
+    }
+
+    @Test
+    public void visiting_a_page_that_is_no_navigation_point_does_not_create_a_session() throws Exception {
+        MvcResult result = getMockMvc().perform(get("/no_navigation_point")).andReturn();
+
+        assertThat(result.getRequest().getSession(false), is(nullValue()));
+    }
+
+    @Test
+    public void visiting_a_navigation_point_creates_a_session() throws Exception {
+        MvcResult result = getMockMvc().perform(get("/base")).andReturn();
+
+        assertThat(result.getRequest().getSession(false), is(notNullValue()));
+    }
+
+    @Test
+    public void refreshing_a_page_does_not_write_to_the_session() throws Exception {
+        getMockMvc().perform(get("/base").session(session));
+        getMockMvc().perform(get("/base/step/one").session(session));
+        writtenAttributes.clear();
+
+        getMockMvc().perform(get("/base/step/one").session(session))
+                .andExpect(model().attribute("navigationCurrent", "/base/step/one"));
+        getMockMvc().perform(get("/base").session(session));
+        getMockMvc().perform(get("/base").session(session))
+                .andExpect(model().attribute("navigationCurrent", "/base"));
+
+        assertThat(writtenAttributes, contains("navigation"));
+    }
+}
@@ -0,0 +1,108 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.annotations.NavigationPoint;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import org.junit.Test;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+
+public class QueryNormalizationTest extends AbstractNavigationTest {
+
+    @Override
+    protected Object[] getControllersUnderTest() {
+        return new Object[] {
+                new BasePageClassAnnotatedController(),
+                new NormalizingController()
+        };
+    }
+
+    @Test
+    public void ignored_parameters_are_dropped() {
+        QueryNormalization queryNormalization = new QueryNormalization(Collections.<String>emptySet(),
+                Arrays.asList("_", "utm_*"), false);
+
+        assertThat(queryNormalization.normalize("page=2&_=1397&utm_source=mail"), is("page=2"));
+        assertThat(queryNormalization.normalize("_=1397"), is(nullValue()));
+    }
+
+    @Test
+    public void only_retained_parameters_are_kept() {
+        QueryNormalization queryNormalization = new QueryNormalization(Arrays.asList("page", "filter.*"),
+                Collections.<String>emptySet(), false);
+
+        assertThat(queryNormalization.normalize("session=42&page=2&filter.colour=red"),
+                is("page=2&filter.colour=red"));
+    }
+
+    @Test
+    public void parameters_are_sorted_by_name_keeping_the_order_of_repeated_ones() {
+        QueryNormalization queryNormalization = new QueryNormalization(Collections.<String>emptySet(),
+                Collections.<String>emptySet(), true);
+
+        assertThat(queryNormalization.normalize("sort=name&id=2&page=1&id=1"), is("id=2&id=1&page=1&sort=name"));
+    }
+
+    @Test
+    public void normalized_query_strings_are_returned_as_they_are() {
+        QueryNormalization queryNormalization = new QueryNormalization(Collections.<String>emptySet(),
+                Collections.singleton("_"), true);
+        String query = "id=2&page=1";
+
+        assertThat(queryNormalization.normalize(query), is(sameInstance(query)));
+        assertThat(QueryNormalization.NONE.normalize("b=1&a=2"), is("b=1&a=2"));
+    }
+
+    @Test
+    public void annotated_rules_collapse_equivalent_uris() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/normalized/list?sort=name&page=1&_=1").session(getSession()));
+        getMockMvc().perform(get("/normalized/item?id=7&utm_source=mail").session(getSession()))
+                .andExpect(model().attribute("navigationCurrent", "/normalized/item?id=7"))
+                .andExpect(model().attribute("navigationBack", "/normalized/list?page=1&sort=name"));
+
+        getMockMvc().perform(get("/normalized/list?page=1&_=2&sort=name").session(getSession()))
+                .andExpect(model().attribute("navigationCurrent", "/normalized/list?page=1&sort=name"))
+                .andExpect(model().attribute("navigationBack", "/base"));
+    }
+
+    @Test
+    public void rules_are_bound_while_the_handler_runs() throws Exception {
+        getMockMvc().perform(get("/normalized/current?b=1&_=3&a=2").session(getSession()))
+                .andExpect(model().attribute("normalizedQuery", "a=2&b=1"));
+    }
+
+    @Controller
+    @RequestMapping("normalized")
+    @NavigationPoint(value = NavigationPointType.STEP, ignoredParameters = {"_", "utm_*"}, sortParameters = true)
+    public static class NormalizingController {
+
+        @RequestMapping("list")
+        public String showList() {
+            return "fake";
+        }
+
+        @RequestMapping("item")
+        public String showItem() {
+            return "fake";
+        }
+
+        @RequestMapping("current")
+        public String showCurrent(HttpServletRequest request, ModelMap model) {
+            QueryNormalization queryNormalization = QueryNormalization.find(request);
+            model.addAttribute("normalizedQuery", queryNormalization.normalize(request.getQueryString()));
+            return "fake";
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package nl.trifork.spring.navigation;
+
+import nl.trifork.spring.navigation.stack.NavigationStackEnricher;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BaseAndStepPagesMethodAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.StepPagesClassAnnotatedController;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isEmptyString;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+
+public class SignedTokenNavigationStateRepositoryTest extends AbstractNavigationTest {
+
+    private static final byte[] SECRET = "not so secret test secret".getBytes(Charset.forName("UTF-8"));
+
+    private long now = 1000000L;
+
+    private final CookieNavigationStateRepository repository = new CookieNavigationStateRepository(SECRET,
+            Collections.singleton(new NavigationStackEnricher())) {
+        @Override
+        protected String getTokenBinding(HttpServletRequest request) {
+            return request.getHeader("X-Client");
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    };
+
+    private Cookie cookie;
+
+    @Override
+    protected Object[] getControllersUnderTest() {
+        return new Object[] {
+                new BasePageClassAnnotatedController(),
+                new StepPagesClassAnnotatedController(),
+                new BaseAndStepPagesMethodAnnotatedController()
+        };
+    }
+
+    @Override
+    protected Object[] getNavigationBeans() {
+        return new Object[] { repository };
+    }
+
+    @Test
+    public void navigational_state_is_carried_by_the_client_without_a_session() throws Exception {
+        perform(get("/base"));
+        MvcResult result = perform(get("/base/step/one"));
+
+        assertThat(result.getModelAndView().getModel().get("navigationCurrent"), is((Object) "/base/step/one"));
+        assertThat(result.getModelAndView().getModel().get("navigationBack"), is((Object) "/base"));
+        assertThat(result.getRequest().getSession(false), is(nullValue()));
+        assertThat(cookie.isHttpOnly(), is(true));
+    }
+
+    @Test
+    public void token_is_only_issued_when_the_state_changes() throws Exception {
+        perform(get("/base"));
+        perform(get("/base/step/one"));
+
+        MvcResult result = perform(get("/base/step/one"));
+
+        assertThat(result.getResponse().getCookie("navigation"), is(nullValue()));
+    }
+
+    @Test
+    public void tampered_token_is_ignored() throws Exception {
+        perform(get("/base"));
+        perform(get("/base/step/one"));
+        String value = cookie.getValue();
+        cookie = new Cookie("navigation", (value.charAt(0) == 'A' ? 'B' : 'A') + value.substring(1));
+
+        getMockMvc().perform(get("/base/step/two").cookie(cookie))
+                .andExpect(model().attribute("navigationCurrent", "/base/step/two"))
+                .andExpect(model().attribute("navigationBack", "/"));
+    }
+
+    @Test
+    public void expired_token_is_ignored() throws Exception {
+        repository.setTimeToLive(10, TimeUnit.MINUTES);
+        perform(get("/base"));
+        perform(get("/base/step/one"));
+        now += TimeUnit.MINUTES.toMillis(10) + 1;
+
+        getMockMvc().perform(get("/base/step/two").cookie(cookie))
+                .andExpect(model().attribute("navigationCurrent", "/base/step/two"))
+                .andExpect(model().attribute("navigationBack", "/"));
+    }
+
+    @Test
+    public void token_is_ignored_with_another_binding() throws Exception {
+        perform(get("/base").header("X-Client", "one"));
+        perform(get("/base/step/one").header("X-Client", "one"));
+
+        getMockMvc().perform(get("/base/step/two").cookie(cookie).header("X-Client", "one"))
+                .andExpect(model().attribute("navigationBack", "/base/step/one"));
+        getMockMvc().perform(get("/base/step/two").cookie(cookie).header("X-Client", "two"))
+                .andExpect(model().attribute("navigationBack", "/"));
+    }
+
+    @Test
+    public void token_exceeding_the_max_length_is_trimmed_to_its_most_recent_steps() throws Exception {
+        perform(get("/base"));
+        int baseAndOneStep = perform(get("/base/step/one")).getResponse().getCookie("navigation").getValue().length();
+        repository.setMaxTokenLength(baseAndOneStep + 2);
+
+        MvcResult result = perform(get("/base/step/two"));
+        assertThat(result.getModelAndView().getModel().get("navigationBack"), is((Object) "/base/step/one"));
+        assertThat(cookie.getValue().length(), is(lessThanOrEqualTo(baseAndOneStep + 2)));
+
+        getMockMvc().perform(get("/base/step/two").cookie(cookie))
+                .andExpect(model().attribute("navigationCurrent", "/base/step/two"))
+                .andExpect(model().attribute("navigationBack", "/base"));
+    }
+
+    @Test
+    public void token_exceeding_the_max_length_is_discarded() throws Exception {
+        perform(get("/base"));
+        repository.setMaxTokenLength(10);
+
+        MvcResult result = perform(get("/base/step/one"));
+
+        Cookie discarded = result.getResponse().getCookie("navigation");
+        assertThat(discarded.getMaxAge(), is(0));
+        assertThat(discarded.getValue(), isEmptyString());
+    }
+
+    @Test
+    public void header_token_round_trips() {
+        NavigationStackEnricher enricher = new NavigationStackEnricher();
+        HeaderNavigationStateRepository headerRepository = new HeaderNavigationStateRepository(SECRET,
+                Arrays.asList(enricher));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        headerRepository.save(new MockHttpServletRequest(), response, "navigation", enricher.init());
+        String token = response.getHeader("X-Navigation-navigation");
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("X-Navigation-navigation", token);
+
+        assertThat(token, not(isEmptyString()));
+        assertThat(headerRepository.load(request, "navigation"), is(notNullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void enrichers_should_provide_a_codec() {
+        new CookieNavigationStateRepository(SECRET, Collections.singleton(
+                new SimpleNavigationalStateEnricher<String>("title", String.class) {
+                    @Override
+                    public String init() {
+                        return "";
+                    }
+                }));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void secret_should_not_be_too_short() {
+        new CookieNavigationStateRepository(new byte[8], Collections.singleton(new NavigationStackEnricher()));
+    }
+
+    private MvcResult perform(MockHttpServletRequestBuilder request) throws Exception {
+        if (cookie != null) {
+            request.cookie(cookie);
+        }
+        MvcResult result = getMockMvc().perform(request).andReturn();
+        Cookie issued = result.getResponse().getCookie("navigation");
+        if (issued != null) {
+            cookie = issued;
+        }
+        return result;
+    }
+}
@@ -7,15 +7,20 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
@@ -78,6 +83,40 @@ public class SimpleNavigationalStateEnricherTest extends AbstractNavigationTest
                 .andExpect(model().attribute("nav_attr", "base page visited by Quinten"));
     }
 
+    @Test
+    public void outside_of_intercepted_requests_the_attribute_is_read_from_the_repository() {
+        NavigationalStateEnricherImpl enricher = new NavigationalStateEnricherImpl();
+        enricher.setNavigationStateRepository(new FixedNavigationStateRepository());
+
+        assertThat(enricher.retrieveAttribute(new MockHttpServletRequest()), is((Object) "kept in repository"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void outside_of_intercepted_requests_the_attribute_cannot_be_updated_unless_kept_on_the_session() {
+        NavigationalStateEnricherImpl enricher = new NavigationalStateEnricherImpl();
+        enricher.setNavigationStateRepository(new FixedNavigationStateRepository());
+
+        enricher.update(new SessionAttributeUpdater<String>() {
+            @Override
+            public String update(Object attributeToUpdate, Class<String> domainClass) {
+                return "updated";
+            }
+        }, new MockHttpSession());
+    }
+
+    private static class FixedNavigationStateRepository implements NavigationStateRepository {
+
+        @Override
+        public Object load(HttpServletRequest request, String attributeName) {
+            return "kept in repository";
+        }
+
+        @Override
+        public int save(HttpServletRequest request, HttpServletResponse response, String attributeName, Object value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     private static class NavigationalStateEnricherImpl extends SimpleNavigationalStateEnricher<String> {
 
         public NavigationalStateEnricherImpl() {
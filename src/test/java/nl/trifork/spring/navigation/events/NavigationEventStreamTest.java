@@ -0,0 +1,143 @@
+package nl.trifork.spring.navigation.events;
+
+import nl.trifork.spring.navigation.AbstractNavigationTest;
+import nl.trifork.spring.navigation.NavigationMetrics.Transition;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.BasePageClassAnnotatedController;
+import nl.trifork.spring.navigation.testapp.controllers.annotated.StepPagesClassAnnotatedController;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+public class NavigationEventStreamTest extends AbstractNavigationTest {
+
+    private static final NavigationUriResolver RESOLVER = new NavigationUriResolver() {
+        @Override
+        public String resolveUri(int uriId) {
+            return uriId > 0 ? "/" + uriId : null;
+        }
+    };
+
+    private final RecordingConsumer consumer = new RecordingConsumer();
+    private final NavigationEventStream stream = new NavigationEventStream(consumer);
+
+    @Override
+    protected Object[] getControllersUnderTest() {
+        return new Object[] {
+                new BasePageClassAnnotatedController(),
+                new StepPagesClassAnnotatedController()
+        };
+    }
+
+    @Override
+    protected Object[] getNavigationBeans() {
+        return new Object[] { stream };
+    }
+
+    @Test
+    public void transitions_are_delivered_when_drained() throws Exception {
+        getMockMvc().perform(get("/base").session(getSession()));
+        getMockMvc().perform(get("/base/step/one").session(getSession()));
+        getMockMvc().perform(get("/base").session(getSession()));
+        assertThat(consumer.events.isEmpty(), is(true));
+
+        assertThat(stream.drain(), is(3L));
+
+        assertThat(transitionsOf(consumer.events), contains(Transition.REBASE, Transition.FORWARD, Transition.REBASE));
+        NavigationEvent forward = consumer.events.get(1);
+        assertThat(forward.getFromUri(), is("/base"));
+        assertThat(forward.getToUri(), is("/base/step/one"));
+        assertThat(consumer.events.get(2).getFromUri(), is("/base/step/one"));
+        assertThat(stream.getPublishedCount(), is(3L));
+        assertThat(stream.getDeliveredCount(), is(3L));
+    }
+
+    @Test
+    public void events_are_dropped_when_the_buffer_is_full() {
+        NavigationEventStream bounded = new NavigationEventStream(consumer);
+        bounded.setBufferCapacity(2);
+        bounded.setBatchSize(1);
+
+        assertThat(bounded.publish(RESOLVER, 1, 2, Transition.FORWARD), is(true));
+        assertThat(bounded.publish(RESOLVER, 2, 3, Transition.FORWARD), is(true));
+        assertThat(bounded.publish(RESOLVER, 3, 2, Transition.BACK), is(false));
+
+        assertThat(bounded.drain(), is(2L));
+        assertThat(consumer.batches, is(2));
+        assertThat(bounded.publish(RESOLVER, 3, 3, Transition.REFRESH), is(true));
+        assertThat(bounded.drain(), is(1L));
+        assertThat(transitionsOf(consumer.events), contains(Transition.FORWARD, Transition.FORWARD,
+                Transition.REFRESH));
+        assertThat(consumer.events.get(1).getToUri(), is("/3"));
+        assertThat(bounded.getPublishedCount(), is(3L));
+        assertThat(bounded.getDroppedCount(), is(1L));
+    }
+
+    @Test
+    public void events_of_other_threads_are_drained_also_after_these_died() throws Exception {
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stream.publish(RESOLVER, 1, 2, Transition.FORWARD);
+            }
+        });
+        publisher.start();
+        publisher.join();
+        stream.publish(RESOLVER, 2, 0, Transition.BACK);
+
+        assertThat(stream.drain(), is(2L));
+        assertThat(consumer.events.get(1).getToUri(), is(nullValue()));
+        assertThat(stream.drain(), is(0L));
+        assertThat(stream.getPublishedCount(), is(2L));
+    }
+
+    @Test
+    public void a_failing_consumer_does_not_keep_others_from_their_events() {
+        stream.register(new NavigationEventConsumer() {
+            @Override
+            public void consume(List<NavigationEvent> events) {
+                throw new IllegalStateException("analytics unavailable");
+            }
+        });
+        RecordingConsumer other = new RecordingConsumer();
+        stream.register(other);
+        stream.publish(RESOLVER, 1, 2, Transition.FORWARD);
+
+        stream.drain();
+
+        assertThat(other.events.size(), is(1));
+        assertThat(stream.getDeliveredCount(), is(2L));
+        assertThat(stream.getFailedDeliveryCount(), is(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buffer_capacity_should_be_positive() {
+        stream.setBufferCapacity(0);
+    }
+
+    private static List<Transition> transitionsOf(List<NavigationEvent> events) {
+        List<Transition> transitions = new ArrayList<>();
+        for (NavigationEvent event : events) {
+            transitions.add(event.getTransition());
+        }
+        return transitions;
+    }
+
+    private static class RecordingConsumer implements NavigationEventConsumer {
+
+        private final List<NavigationEvent> events = new ArrayList<>();
+        private int batches;
+
+        @Override
+        public void consume(List<NavigationEvent> events) {
+            this.events.addAll(events);
+            batches++;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package nl.trifork.spring.navigation.stack;
+
+import nl.trifork.spring.navigation.stack.NavigationStackEnricher.DegradationLevel;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class MemoryPressureMonitorTest {
+
+    private final NavigationStackEnricher navigationStackEnricher = new NavigationStackEnricher();
+    private final MemoryPressureMonitor monitor = new MemoryPressureMonitor(navigationStackEnricher);
+
+    @Test
+    public void the_degradation_level_rises_with_the_used_fraction_of_the_heap() {
+        assertThat(monitor.update(0.5), is(DegradationLevel.NORMAL));
+        assertThat(monitor.update(0.75), is(DegradationLevel.REDUCED_DEPTH));
+        assertThat(monitor.update(0.85), is(DegradationLevel.NO_NEW_STEPS));
+        assertThat(monitor.update(0.95), is(DegradationLevel.BASE_ONLY));
+        assertThat(navigationStackEnricher.getDegradationLevel(), is(DegradationLevel.BASE_ONLY));
+    }
+
+    @Test
+    public void the_degradation_level_recovers_once_the_used_fraction_is_sufficiently_low() {
+        monitor.update(0.95);
+
+        assertThat(monitor.update(0.88), is(DegradationLevel.BASE_ONLY));
+        assertThat(monitor.update(0.8), is(DegradationLevel.NO_NEW_STEPS));
+        assertThat(monitor.update(0.3), is(DegradationLevel.NORMAL));
+    }
+
+    @Test
+    public void stopping_the_monitor_restores_the_navigational_state() {
+        monitor.start();
+        monitor.update(0.95);
+
+        monitor.stop();
+
+        assertThat(navigationStackEnricher.getDegradationLevel(), is(DegradationLevel.NORMAL));
+    }
+
+    @Test
+    public void stopping_the_monitor_restores_the_previous_collection_usage_thresholds() {
+        MemoryPoolMXBean pool = null;
+        for (MemoryPoolMXBean candidate : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (candidate.getType() == MemoryType.HEAP && candidate.isCollectionUsageThresholdSupported()
+                    && candidate.getUsage().getMax() > 0) {
+                pool = candidate;
+            }
+        }
+        assumeTrue(pool != null);
+        long previousThreshold = pool.getCollectionUsageThreshold();
+        try {
+            pool.setCollectionUsageThreshold(1024);
+
+            monitor.start();
+            monitor.stop();
+
+            assertThat(pool.getCollectionUsageThreshold(), is(1024L));
+        } finally {
+            pool.setCollectionUsageThreshold(previousThreshold);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void thresholds_should_be_ascending() {
+        new MemoryPressureMonitor(navigationStackEnricher, 0.9, 0.8, 0.95);
+    }
+}
@@ -0,0 +1,103 @@
+package nl.trifork.spring.navigation.stack;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class NavigationStackCodecTest {
+
+    private final UriDictionary uriDictionary = new UriDictionary(100);
+    private final NavigationStackCodec codec = new NavigationStackCodec(uriDictionary, 5);
+
+    @Test
+    public void a_navigation_stack_survives_an_encoding_round_trip() {
+        NavigationStack navigationStack = navigationStack();
+
+        NavigationStack decoded = codec.decode(codec.encode(navigationStack));
+
+        assertThat(decoded.getBaseNavigationPointUri(), is("/shop"));
+        assertThat(decoded.getPreviousNavigationPointUri(), is("/shop/products?category=bikes"));
+        assertThat(decoded.getLastNavigationPointUri(), is("/shop/products/42?category=bikes&colour=rosé"));
+        assertThat(decoded.getDepth(), is(3));
+        assertThat(decoded.getMaxDepth(), is(5));
+        assertThat(decoded.getTop(), is(sameInstance(navigationStack.getTop())));
+    }
+
+    @Test
+    public void window_stacks_survive_an_encoding_round_trip() {
+        NavigationStack navigationStack = navigationStack();
+        navigationStack.getWindow("tab", 4).removeLastStep();
+
+        NavigationStack decoded = codec.decode(codec.encode(navigationStack));
+
+        assertThat(decoded.getWindowCount(), is(1));
+        assertThat(decoded.findWindow("tab").getLastNavigationPointUri(), is("/shop/products?category=bikes"));
+        assertThat(decoded.getDepth(), is(3));
+    }
+
+    @Test
+    public void consecutive_uris_are_encoded_relative_to_each_other() {
+        NavigationStack navigationStack = navigationStack();
+        int uriLengths = 0;
+        for (NavigationUri uri : navigationStack.snapshot().getUris()) {
+            uriLengths += uri.getUri().length();
+        }
+
+        assertThat(codec.encode(navigationStack).length, is(lessThan(uriLengths)));
+    }
+
+    @Test
+    public void a_navigation_stack_is_java_serialized_in_its_encoded_form() throws Exception {
+        NavigationStack navigationStack = navigationStack();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(navigationStack);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        NavigationStack deserialized = (NavigationStack) in.readObject();
+
+        assertThat(deserialized.getLastNavigationPointUri(), is(navigationStack.getLastNavigationPointUri()));
+        assertThat(deserialized.getDepth(), is(3));
+        assertThat(deserialized.getUriDictionary().isShared(), is(false));
+    }
+
+    @Test
+    public void the_max_depth_of_a_decoded_stack_is_clamped_to_that_of_the_codec() {
+        NavigationStack navigationStack = navigationStack();
+        navigationStack.addStep(uriDictionary.intern("/shop/cart"));
+
+        NavigationStack decoded = new NavigationStackCodec(uriDictionary, 3).decode(codec.encode(navigationStack));
+
+        assertThat(decoded.getMaxDepth(), is(3));
+        assertThat(decoded.getDepth(), is(3));
+        assertThat(decoded.getBaseNavigationPointUri(), is("/shop"));
+        assertThat(decoded.getPreviousNavigationPointUri(), is("/shop/products/42?category=bikes&colour=rosé"));
+        assertThat(decoded.getLastNavigationPointUri(), is("/shop/cart"));
+        assertThat(decoded.getEvictionCount(), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void a_truncated_encoding_is_rejected() {
+        byte[] encoded = codec.encode(navigationStack());
+        byte[] truncated = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        codec.decode(truncated);
+    }
+
+    private NavigationStack navigationStack() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uriDictionary.intern("/shop"), 5);
+        navigationStack.addStep(uriDictionary.intern("/shop/products?category=bikes"));
+        navigationStack.addStep(uriDictionary.intern("/shop/products/42?category=bikes&colour=rosé"));
+        return navigationStack;
+    }
+}
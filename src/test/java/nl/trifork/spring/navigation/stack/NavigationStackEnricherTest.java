@@ -61,6 +61,19 @@ public class NavigationStackEnricherTest extends AbstractNavigationTest {
             .andExpect(redirectedUrl("/test/step_2"));
     }
 
+    @Test
+    public void degrading_to_base_only_trims_all_windows_on_the_next_step_visit() throws Exception {
+        getMockMvc().perform(get("/test/step").session(getSession()).header("X-Navigation-Window", "first"));
+        navigationStackEnricher.setDegradationLevel(NavigationStackEnricher.DegradationLevel.BASE_ONLY);
+
+        getMockMvc().perform(get("/test/step_2").session(getSession()));
+
+        getMockMvc().perform(post("/test/to_last").session(getSession()))
+            .andExpect(redirectedUrl("/test/base"));
+        getMockMvc().perform(post("/test/to_last").session(getSession()).header("X-Navigation-Window", "first"))
+            .andExpect(redirectedUrl("/test/base"));
+    }
+
     @RequestMapping("/test")
     private static class TestController {
 
@@ -0,0 +1,387 @@
+package nl.trifork.spring.navigation.stack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class NavigationStackTest {
+
+    private final UriDictionary uriDictionary = new UriDictionary(100);
+
+    @Test
+    public void removing_the_last_step_returns_to_the_previous_one() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        navigationStack.addStep(uri("/step/one"));
+        navigationStack.addStep(uri("/step/two"));
+
+        navigationStack.removeLastStep();
+
+        assertThat(navigationStack.getLastNavigationPointUri(), is("/step/one"));
+        assertThat(navigationStack.getPreviousNavigationPointUri(), is("/base"));
+        assertThat(navigationStack.getDepth(), is(2));
+    }
+
+    @Test
+    public void the_base_uri_is_never_removed() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+
+        navigationStack.removeLastStep();
+
+        assertThat(navigationStack.getLastNavigationPointUri(), is("/base"));
+        assertThat(navigationStack.getDepth(), is(1));
+    }
+
+    @Test
+    public void exceeding_the_max_depth_evicts_the_oldest_step_but_keeps_the_base_uri() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 3);
+        navigationStack.addStep(uri("/step/one"));
+        navigationStack.addStep(uri("/step/two"));
+
+        assertThat(navigationStack.addStep(uri("/step/three")), is(true));
+        assertThat(navigationStack.addStep(uri("/step/four")), is(true));
+
+        assertThat(navigationStack.getDepth(), is(3));
+        assertThat(navigationStack.getEvictionCount(), is(2));
+        assertThat(navigationStack.getBaseNavigationPointUri(), is("/base"));
+        assertThat(navigationStack.getPreviousNavigationPointUri(), is("/step/three"));
+        assertThat(navigationStack.getLastNavigationPointUri(), is("/step/four"));
+
+        navigationStack.removeLastStep();
+        navigationStack.removeLastStep();
+        assertThat(navigationStack.getLastNavigationPointUri(), is("/base"));
+    }
+
+    @Test
+    public void evicting_a_step_allocates_only_the_node_of_the_new_step() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 100);
+        for (int i = 1; i <= 1000; i++) {
+            StackNode previousTop = navigationStack.getTop();
+
+            navigationStack.addStep(uri("/step/" + i));
+
+            StackNode top = navigationStack.getTop();
+            if (top.getParent() != null) {
+                assertThat(top.getParent(), is(sameInstance(previousTop)));
+            }
+            assertThat(navigationStack.snapshot().getNodeCount(), is(lessThanOrEqualTo(2 * 100)));
+        }
+
+        assertThat(navigationStack.getDepth(), is(100));
+        assertThat(navigationStack.getEvictionCount(), is(901));
+        assertThat(navigationStack.getNavigationPointUri(98), is("/step/902"));
+        assertThat(navigationStack.getNavigationPointUri(99), is("/base"));
+        assertThat(navigationStack.visitStep(uri("/step/950")), is(NavigationStack.StepVisit.BACK));
+        for (int i = 0; i < 49; i++) {
+            assertThat(navigationStack.getNavigationPointUri(i), is("/step/" + (950 - i)));
+        }
+        assertThat(navigationStack.getDepth(), is(50));
+    }
+
+    @Test
+    public void deep_stacks_find_steps_through_an_index_that_diverging_stacks_do_not_share() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 50);
+        for (int i = 1; i <= 30; i++) {
+            navigationStack.visitStep(uri("/step/" + i));
+        }
+        NavigationStack window = navigationStack.getWindow("tab", 2);
+
+        assertThat(navigationStack.visitStep(uri("/step/20")), is(NavigationStack.StepVisit.BACK));
+        assertThat(navigationStack.visitStep(uri("/step/other")), is(NavigationStack.StepVisit.FORWARD));
+        assertThat(window.visitStep(uri("/step/25")), is(NavigationStack.StepVisit.BACK));
+        assertThat(window.visitStep(uri("/step/other")), is(NavigationStack.StepVisit.FORWARD));
+        assertThat(navigationStack.visitStep(uri("/step/25")), is(NavigationStack.StepVisit.FORWARD));
+
+        assertThat(navigationStack.getNavigationPointUri(1), is("/step/other"));
+        assertThat(navigationStack.getNavigationPointUri(2), is("/step/20"));
+        assertThat(window.getNavigationPointUri(1), is("/step/25"));
+        assertThat(window.visitStep(uri("/step/other")), is(NavigationStack.StepVisit.REFRESH));
+        assertThat(navigationStack.visitStep(uri("/base")), is(NavigationStack.StepVisit.BACK));
+        assertThat(navigationStack.getDepth(), is(1));
+    }
+
+    @Test
+    public void deep_stacks_do_not_find_evicted_steps() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        for (int i = 1; i <= 100; i++) {
+            navigationStack.visitStep(uri("/step/" + i));
+        }
+
+        assertThat(navigationStack.visitStep(uri("/step/95")), is(NavigationStack.StepVisit.BACK));
+        assertThat(navigationStack.visitStep(uri("/step/90")), is(NavigationStack.StepVisit.FORWARD));
+        assertThat(navigationStack.getNavigationPointUri(1), is("/step/95"));
+        assertThat(navigationStack.getNavigationPointUri(4), is("/step/92"));
+        assertThat(navigationStack.getNavigationPointUri(5), is("/base"));
+        assertThat(navigationStack.getDepth(), is(6));
+    }
+
+    @Test
+    public void steps_keep_their_order() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 20);
+        for (int i = 1; i <= 12; i++) {
+            navigationStack.addStep(uri("/step/" + i));
+        }
+
+        for (int i = 12; i > 1; i--) {
+            assertThat(navigationStack.getLastNavigationPointUri(), is("/step/" + i));
+            assertThat(navigationStack.getPreviousNavigationPointUri(), is("/step/" + (i - 1)));
+            navigationStack.removeLastStep();
+        }
+        assertThat(navigationStack.getPreviousNavigationPointUri(), is("/base"));
+    }
+
+    @Test
+    public void rebasing_clears_all_steps() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 3);
+        navigationStack.addStep(uri("/step/one"));
+        navigationStack.addStep(uri("/step/two"));
+        navigationStack.addStep(uri("/step/three"));
+
+        navigationStack.rebase(uri("/other"));
+        navigationStack.addStep(uri("/step/one"));
+
+        assertThat(navigationStack.getDepth(), is(2));
+        assertThat(navigationStack.getPreviousNavigationPointUri(), is("/other"));
+        assertThat(navigationStack.getLastNavigationPointUri(), is("/step/one"));
+    }
+
+    @Test
+    public void stacks_with_the_same_path_share_their_nodes() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        navigationStack.addStep(uri("/step/one"));
+        navigationStack.addStep(uri("/step/two"));
+        NavigationStack otherNavigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        otherNavigationStack.addStep(uri("/step/one"));
+        otherNavigationStack.addStep(uri("/step/two"));
+
+        assertThat(otherNavigationStack.getTop(), is(sameInstance(navigationStack.getTop())));
+    }
+
+    @Test
+    public void visiting_steps_detects_back_and_refresh_actions() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+
+        assertThat(navigationStack.visitStep(uri("/step/one")), is(NavigationStack.StepVisit.FORWARD));
+        assertThat(navigationStack.visitStep(uri("/step/one")), is(NavigationStack.StepVisit.REFRESH));
+        assertThat(navigationStack.visitStep(uri("/step/two")), is(NavigationStack.StepVisit.FORWARD));
+        assertThat(navigationStack.visitStep(uri("/step/one")), is(NavigationStack.StepVisit.BACK));
+        assertThat(navigationStack.getDepth(), is(2));
+    }
+
+    @Test
+    public void concurrent_visits_of_the_same_stack_are_not_lost() throws Exception {
+        final int threads = 8;
+        final int visitsPerThread = 2000;
+        final NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> forwardVisits = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                forwardVisits.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int forward = 0;
+                        for (int i = 0; i < visitsPerThread; i++) {
+                            NavigationStack.StepVisit visit =
+                                    navigationStack.visitStep(uri("/step/" + thread + "/" + i));
+                            if (visit == NavigationStack.StepVisit.FORWARD
+                                    || visit == NavigationStack.StepVisit.FORWARD_EVICTING) {
+                                forward++;
+                            }
+                        }
+                        return forward;
+                    }
+                }));
+            }
+            start.countDown();
+
+            int totalForwardVisits = 0;
+            for (Future<Integer> forward : forwardVisits) {
+                totalForwardVisits += forward.get(30, TimeUnit.SECONDS);
+            }
+
+            assertThat(totalForwardVisits, is(threads * visitsPerThread));
+            assertThat(navigationStack.getDepth(), is(10));
+            assertThat(navigationStack.getEvictionCount(), is(totalForwardVisits - 9));
+            assertThat(navigationStack.getModificationCount(), is(totalForwardVisits));
+            assertThat(navigationStack.getBaseNavigationPointUri(), is("/base"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void visiting_an_earlier_step_goes_back_to_it() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        navigationStack.addStep(uri("/step/one"));
+        navigationStack.addStep(uri("/step/two"));
+        navigationStack.addStep(uri("/step/three"));
+
+        assertThat(navigationStack.visitStep(uri("/step/one")), is(NavigationStack.StepVisit.BACK));
+
+        assertThat(navigationStack.getDepth(), is(2));
+        assertThat(navigationStack.getLastNavigationPointUri(), is("/step/one"));
+        assertThat(navigationStack.visitStep(uri("/step/one")), is(NavigationStack.StepVisit.REFRESH));
+    }
+
+    @Test
+    public void cyclic_navigation_does_not_grow_the_stack() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 50);
+        for (int i = 0; i < 100; i++) {
+            navigationStack.visitStep(uri("/step/one"));
+            navigationStack.visitStep(uri("/step/two"));
+            navigationStack.visitStep(uri("/step/three"));
+        }
+
+        assertThat(navigationStack.getDepth(), is(4));
+        assertThat(navigationStack.getEvictionCount(), is(0));
+    }
+
+    @Test
+    public void navigation_points_are_available_several_levels_back() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        navigationStack.addStep(uri("/step/one"));
+        navigationStack.addStep(uri("/step/two"));
+
+        assertThat(navigationStack.getNavigationPointUri(0), is("/step/two"));
+        assertThat(navigationStack.getNavigationPointUri(1), is("/step/one"));
+        assertThat(navigationStack.getNavigationPointUri(2), is("/base"));
+        assertThat(navigationStack.getNavigationPointUri(5), is("/base"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void navigation_points_cannot_be_negative_levels_back() {
+        new NavigationStack(uriDictionary, uri("/base"), 10).getNavigationPointUri(-1);
+    }
+
+    @Test
+    public void a_degraded_visit_trims_the_stack_and_may_not_add_steps() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        navigationStack.addStep(uri("/step/one"));
+        navigationStack.addStep(uri("/step/two"));
+        navigationStack.addStep(uri("/step/three"));
+
+        assertThat(navigationStack.visitStep(uri("/step/four"), 3, false), is(NavigationStack.StepVisit.IGNORED));
+        assertThat(navigationStack.getDepth(), is(3));
+        assertThat(navigationStack.getPreviousNavigationPointUri(), is("/step/two"));
+        assertThat(navigationStack.visitStep(uri("/step/four"), 3, true),
+                is(NavigationStack.StepVisit.FORWARD_EVICTING));
+        assertThat(navigationStack.getPreviousNavigationPointUri(), is("/step/three"));
+        assertThat(navigationStack.getBaseNavigationPointUri(), is("/base"));
+    }
+
+    @Test
+    public void compacting_keeps_the_base_and_last_uri_and_discards_windows() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        navigationStack.addStep(uri("/step/one"));
+        navigationStack.addStep(uri("/step/two"));
+        navigationStack.getWindow("tab", 2);
+        int modificationCount = navigationStack.getModificationCount();
+
+        assertThat(navigationStack.compact(), is(greaterThan(0L)));
+
+        assertThat(navigationStack.getPreviousNavigationPointUri(), is("/base"));
+        assertThat(navigationStack.getLastNavigationPointUri(), is("/step/two"));
+        assertThat(navigationStack.getWindowCount(), is(0));
+        assertThat(navigationStack.getModificationCount(), is(greaterThan(modificationCount)));
+        assertThat(navigationStack.compact(), is(0L));
+    }
+
+    @Test
+    public void trimming_keeps_the_base_uri() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        navigationStack.addStep(uri("/step/one"));
+        navigationStack.addStep(uri("/step/two"));
+
+        assertThat(navigationStack.trim(1), is(true));
+        assertThat(navigationStack.trim(1), is(false));
+
+        assertThat(navigationStack.getLastNavigationPointUri(), is("/base"));
+        assertThat(navigationStack.getEvictionCount(), is(2));
+    }
+
+    @Test
+    public void a_trimmed_copy_leaves_the_stack_and_its_windows_untouched() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        navigationStack.addStep(uri("/step/one"));
+        navigationStack.getWindow("tab", 2).addStep(uri("/step/two"));
+        navigationStack.getWindow("tab", 2).addStep(uri("/step/three"));
+
+        NavigationStack copy = navigationStack.trimmedCopy(2);
+
+        assertThat(navigationStack.getDeepestDepth(), is(4));
+        assertThat(copy.getDeepestDepth(), is(2));
+        assertThat(copy.getLastNavigationPointUri(), is("/step/one"));
+        assertThat(copy.findWindow("tab").getPreviousNavigationPointUri(), is("/base"));
+        assertThat(copy.findWindow("tab").getLastNavigationPointUri(), is("/step/three"));
+    }
+
+    @Test
+    public void a_window_starts_as_a_copy_and_is_navigated_independently() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        navigationStack.addStep(uri("/step/one"));
+        int modificationCount = navigationStack.getModificationCount();
+
+        NavigationStack window = navigationStack.getWindow("tab", 2);
+        window.addStep(uri("/step/two"));
+
+        assertThat(navigationStack.getWindow("tab", 2), is(sameInstance(window)));
+        assertThat(window.getPreviousNavigationPointUri(), is("/step/one"));
+        assertThat(navigationStack.getLastNavigationPointUri(), is("/step/one"));
+        assertThat(navigationStack.getModificationCount(), is(modificationCount + 2));
+    }
+
+    @Test
+    public void the_least_recently_used_window_is_discarded() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        NavigationStack first = navigationStack.getWindow("first", 2);
+        navigationStack.getWindow("second", 2);
+        navigationStack.getWindow("first", 2);
+        int modificationCount = navigationStack.getModificationCount();
+
+        navigationStack.getWindow("third", 2);
+
+        assertThat(navigationStack.getWindowCount(), is(2));
+        assertThat(navigationStack.findWindow("first"), is(sameInstance(first)));
+        assertThat(navigationStack.findWindow("second"), is(nullValue()));
+        assertThat(navigationStack.getModificationCount(), is(greaterThan(modificationCount)));
+    }
+
+    @Test
+    public void request_uris_are_compared_by_path_and_query_string() {
+        NavigationStack navigationStack = new NavigationStack(uriDictionary, uri("/base"), 10);
+        navigationStack.addStep(uri("/step?page=1"));
+
+        assertThat(navigationStack.equalsFormerRequestUri("/base", null), is(true));
+        assertThat(navigationStack.equalsFormerRequestUri("/base", "page=1"), is(false));
+        assertThat(navigationStack.equalsLastRequestUri("/step", "page=1"), is(true));
+        assertThat(navigationStack.equalsLastRequestUri("/step", null), is(false));
+        assertThat(navigationStack.equalsLastRequestUri(new UriDictionary(1).intern("/step", "page=1")),
+                is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void the_max_depth_allows_at_least_a_single_step() {
+        new NavigationStack(uriDictionary, uri("/base"), 1);
+    }
+
+    private NavigationUri uri(String uri) {
+        return uriDictionary.intern(uri);
+    }
+}
@@ -0,0 +1,121 @@
+package nl.trifork.spring.navigation.stack;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class UriDictionaryTest {
+
+    @Test
+    public void equal_uris_are_interned_to_the_same_instance() {
+        UriDictionary uriDictionary = new UriDictionary(10);
+
+        NavigationUri first = uriDictionary.intern("/base/step?page=" + 1);
+        NavigationUri second = uriDictionary.intern("/base/step?page=" + 1);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(first.getId(), is(greaterThanOrEqualTo(0)));
+        assertThat(uriDictionary.resolve(first.getId()), is(sameInstance(first)));
+        assertThat(uriDictionary.size(), is(1));
+    }
+
+    @Test
+    public void uris_are_looked_up_by_path_and_query_string() {
+        UriDictionary uriDictionary = new UriDictionary(10);
+        NavigationUri interned = uriDictionary.intern("/base/step?page=1");
+
+        assertThat(uriDictionary.intern("/base/step", "page=1"), is(sameInstance(interned)));
+        assertThat(uriDictionary.intern("/base/step", null), is(not(sameInstance(interned))));
+        assertThat(uriDictionary.intern("/base/step", "page=1").hashCode(), is("/base/step?page=1".hashCode()));
+        assertThat(uriDictionary.intern("/base/step", "page=2").getUri(), is("/base/step?page=2"));
+        assertThat(uriDictionary.size(), is(3));
+    }
+
+    @Test
+    public void a_full_dictionary_evicts_unreferenced_uris() {
+        UriDictionary uriDictionary = new UriDictionary(1);
+        NavigationUri first = uriDictionary.intern("/one");
+
+        NavigationUri second = uriDictionary.intern("/two");
+
+        assertThat(second.getId(), is(not(first.getId())));
+        assertThat(uriDictionary.resolve(first.getId()), is(nullValue()));
+        assertThat(uriDictionary.intern("/two"), is(sameInstance(second)));
+        assertThat(uriDictionary.size(), is(1));
+        assertThat(uriDictionary.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void a_full_dictionary_gives_referenced_uris_a_second_chance() {
+        UriDictionary uriDictionary = new UriDictionary(1);
+        NavigationUri first = uriDictionary.intern("/one");
+        uriDictionary.intern("/one");
+
+        NavigationUri second = uriDictionary.intern("/two");
+
+        assertThat(uriDictionary.resolve(second.getId()), is(sameInstance(second)));
+        assertThat(uriDictionary.resolve(first.getId()), is(sameInstance(first)));
+        assertThat(uriDictionary.size(), is(2));
+        assertThat(uriDictionary.getOverflowCount(), is(1L));
+    }
+
+    @Test
+    public void uris_retained_by_nodes_are_never_evicted() {
+        UriDictionary uriDictionary = new UriDictionary(1);
+        NavigationUri retained = uriDictionary.intern("/one");
+        StackNode node = uriDictionary.node(null, retained);
+
+        for (int i = 0; i < 10; i++) {
+            uriDictionary.intern("/other/" + i);
+        }
+
+        assertThat(uriDictionary.resolve(node.getUriId()), is(sameInstance(retained)));
+        assertThat(uriDictionary.size(), is(2));
+    }
+
+    @Test
+    public void a_dictionary_beyond_its_capacity_shrinks_back_to_it() {
+        UriDictionary uriDictionary = new UriDictionary(32);
+        NavigationUri first = uriDictionary.intern("/page/0");
+        for (int i = 0; i < 32; i++) {
+            uriDictionary.intern("/page/" + i);
+            uriDictionary.intern("/page/" + i);
+        }
+
+        for (int i = 0; i < 64; i++) {
+            uriDictionary.intern("/new/" + i);
+        }
+
+        assertThat(uriDictionary.size(), is(32));
+        assertThat(uriDictionary.resolve(first.getId()), is(nullValue()));
+    }
+
+    @Test
+    public void nodes_are_shared_per_parent_and_uri() {
+        UriDictionary uriDictionary = new UriDictionary(10);
+        StackNode base = uriDictionary.node(null, uriDictionary.intern("/base"));
+
+        StackNode step = uriDictionary.node(base, uriDictionary.intern("/step"));
+
+        assertThat(uriDictionary.node(base, uriDictionary.intern("/step")), is(sameInstance(step)));
+        assertThat(uriDictionary.node(null, uriDictionary.intern("/base")), is(sameInstance(base)));
+        assertThat(uriDictionary.getNodeCount(), is(2));
+    }
+
+    @Test
+    public void a_node_for_an_evicted_uri_interns_it_anew() {
+        UriDictionary uriDictionary = new UriDictionary(1);
+        NavigationUri evicted = uriDictionary.intern("/one");
+        uriDictionary.intern("/two");
+
+        StackNode node = uriDictionary.node(null, evicted);
+
+        assertThat(node.getUriId(), is(not(evicted.getId())));
+        assertThat(uriDictionary.resolve(node.getUriId()).getUri(), is("/one"));
+    }
+}